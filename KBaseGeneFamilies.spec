@@ -293,6 +293,46 @@ module KBaseGeneFamilies {
 	
 	funcdef search_domains(SearchDomainsParams params) returns (string job_id) authentication required;
 
+	/*
+		list<genome_ref> genomes - genomes for domain annotation process
+		dms_ref dms_ref - set of domain models that will be searched in defined genomes
+		string out_workspace - output workspace
+		list<string> out_result_ids - ids of resulting objects of type DomainAnnotation,
+			one per genome, in the same order as genomes
+	*/
+	typedef structure {
+		list<genome_ref> genomes;
+		dms_ref dms_ref;
+		string out_workspace;
+		list<string> out_result_ids;
+	} SearchDomainsManyParams;
+	
+	/*
+		Searches domains in a batch of genomes in one job, saving one
+		DomainAnnotation per genome.
+	*/
+	funcdef search_domains_many(SearchDomainsManyParams params) returns (string job_id) authentication required;
+
+	/*
+		string state - one of "not started", "running", "done" or "failed"
+		int libraries_total - number of libraries being warmed up
+		int libraries_ready - number of libraries whose files are in place
+		list<string> errors - errors from libraries that couldn't be warmed up
+	*/
+	typedef structure {
+		string state;
+		int libraries_total;
+		int libraries_ready;
+		list<string> errors;
+	} WarmUpStatus;
+
+	/*
+		Reports the progress of the library warm-up started with the
+		service, which fetches the configured domain libraries ahead
+		of the first jobs.
+	*/
+	funcdef warm_up_status() returns (WarmUpStatus status);
+
 	/* returns version number of service */
 	funcdef version() returns (string version);
 
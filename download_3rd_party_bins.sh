@@ -19,11 +19,12 @@ if [[ "$unamestr" == 'Linux' ]]; then
 		rm ./blast.tar.gz
 	fi
 	########### HMMER #############
-	if [ ! -f ../bin/hmmscan.linux ]; then
+	if [ ! -f ../bin/hmmscan.linux ] || [ ! -f ../bin/hmmsearch.linux ]; then
 		echo "Downloading hmmer..."
 		curl -o hmmer.tar.gz 'http://eddylab.org/software/hmmer3/3.1b1/hmmer-3.1b1-linux-intel-x86_64.tar.gz'
-		tar -zxvf hmmer.tar.gz hmmer-3.1b1-linux-intel-x86_64/binaries/hmmscan hmmer-3.1b1-linux-intel-x86_64/binaries/hmmpress
+		tar -zxvf hmmer.tar.gz hmmer-3.1b1-linux-intel-x86_64/binaries/hmmscan hmmer-3.1b1-linux-intel-x86_64/binaries/hmmsearch hmmer-3.1b1-linux-intel-x86_64/binaries/hmmpress
 		mv ./hmmer-3.1b1-linux-intel-x86_64/binaries/hmmscan ../bin/hmmscan.linux
+		mv ./hmmer-3.1b1-linux-intel-x86_64/binaries/hmmsearch ../bin/hmmsearch.linux
 		mv ./hmmer-3.1b1-linux-intel-x86_64/binaries/hmmpress ../bin/hmmpress.linux
 		rmdir ./hmmer-3.1b1-linux-intel-x86_64/binaries
 		rmdir ./hmmer-3.1b1-linux-intel-x86_64
@@ -43,11 +44,12 @@ elif [[ "$unamestr" == 'Darwin' ]]; then
 		rm ./blast.tar.gz
 	fi
 	########### HMMER #############
-	if [ ! -f ../bin/hmmscan.macosx ]; then
+	if [ ! -f ../bin/hmmscan.macosx ] || [ ! -f ../bin/hmmsearch.macosx ]; then
 		echo "Downloading hmmer..."
 		curl -o hmmer.tar.gz 'http://eddylab.org/software/hmmer3/3.1b1/hmmer-3.1b1-macosx-intel.tar.gz'
-		tar -zxvf hmmer.tar.gz hmmer-3.1b1-macosx-intel/binaries/hmmscan hmmer-3.1b1-macosx-intel/binaries/hmmpress
+		tar -zxvf hmmer.tar.gz hmmer-3.1b1-macosx-intel/binaries/hmmscan hmmer-3.1b1-macosx-intel/binaries/hmmsearch hmmer-3.1b1-macosx-intel/binaries/hmmpress
 		mv ./hmmer-3.1b1-macosx-intel/binaries/hmmscan ../bin/hmmscan.macosx
+		mv ./hmmer-3.1b1-macosx-intel/binaries/hmmsearch ../bin/hmmsearch.macosx
 		mv ./hmmer-3.1b1-macosx-intel/binaries/hmmpress ../bin/hmmpress.macosx
 		rmdir ./hmmer-3.1b1-macosx-intel/binaries
 		rmdir ./hmmer-3.1b1-macosx-intel
@@ -159,6 +159,182 @@ sub search_domains
 
 
 
+=head2 search_domains_many
+
+  $job_id = $obj->search_domains_many($params)
+
+=over 4
+
+=item Parameter and return types
+
+=begin html
+
+<pre>
+$params is a KBaseGeneFamilies.SearchDomainsManyParams
+$job_id is a string
+SearchDomainsManyParams is a reference to a hash where the following keys are defined:
+	genomes has a value which is a reference to a list where each element is a KBaseGeneFamilies.genome_ref
+	dms_ref has a value which is a KBaseGeneFamilies.dms_ref
+	out_workspace has a value which is a string
+	out_result_ids has a value which is a reference to a list where each element is a string
+genome_ref is a string
+dms_ref is a string
+
+</pre>
+
+=end html
+
+=begin text
+
+$params is a KBaseGeneFamilies.SearchDomainsManyParams
+$job_id is a string
+SearchDomainsManyParams is a reference to a hash where the following keys are defined:
+	genomes has a value which is a reference to a list where each element is a KBaseGeneFamilies.genome_ref
+	dms_ref has a value which is a KBaseGeneFamilies.dms_ref
+	out_workspace has a value which is a string
+	out_result_ids has a value which is a reference to a list where each element is a string
+genome_ref is a string
+dms_ref is a string
+
+
+=end text
+
+=item Description
+
+Searches domains in a batch of genomes in one job, saving one
+DomainAnnotation per genome.
+
+=back
+
+=cut
+
+sub search_domains_many
+{
+    my($self, @args) = @_;
+
+# Authentication: required
+
+    if ((my $n = @args) != 1)
+    {
+	Bio::KBase::Exceptions::ArgumentValidationError->throw(error =>
+							       "Invalid argument count for function search_domains_many (received $n, expecting 1)");
+    }
+    {
+	my($params) = @args;
+
+	my @_bad_arguments;
+        (ref($params) eq 'HASH') or push(@_bad_arguments, "Invalid type for argument 1 \"params\" (value was \"$params\")");
+        if (@_bad_arguments) {
+	    my $msg = "Invalid arguments passed to search_domains_many:\n" . join("", map { "\t$_\n" } @_bad_arguments);
+	    Bio::KBase::Exceptions::ArgumentValidationError->throw(error => $msg,
+								   method_name => 'search_domains_many');
+	}
+    }
+
+    my $result = $self->{client}->call($self->{url}, {
+	method => "KBaseGeneFamilies.search_domains_many",
+	params => \@args,
+    });
+    if ($result) {
+	if ($result->is_error) {
+	    Bio::KBase::Exceptions::JSONRPC->throw(error => $result->error_message,
+					       code => $result->content->{error}->{code},
+					       method_name => 'search_domains_many',
+					       data => $result->content->{error}->{error} # JSON::RPC::ReturnObject only supports JSONRPC 1.1 or 1.O
+					      );
+	} else {
+	    return wantarray ? @{$result->result} : $result->result->[0];
+	}
+    } else {
+        Bio::KBase::Exceptions::HTTP->throw(error => "Error invoking method search_domains_many",
+					    status_line => $self->{client}->status_line,
+					    method_name => 'search_domains_many',
+				       );
+    }
+}
+
+
+
+=head2 warm_up_status
+
+  $status = $obj->warm_up_status()
+
+=over 4
+
+=item Parameter and return types
+
+=begin html
+
+<pre>
+$status is a KBaseGeneFamilies.WarmUpStatus
+WarmUpStatus is a reference to a hash where the following keys are defined:
+	state has a value which is a string
+	libraries_total has a value which is an int
+	libraries_ready has a value which is an int
+	errors has a value which is a reference to a list where each element is a string
+
+</pre>
+
+=end html
+
+=begin text
+
+$status is a KBaseGeneFamilies.WarmUpStatus
+WarmUpStatus is a reference to a hash where the following keys are defined:
+	state has a value which is a string
+	libraries_total has a value which is an int
+	libraries_ready has a value which is an int
+	errors has a value which is a reference to a list where each element is a string
+
+
+=end text
+
+=item Description
+
+Reports the progress of the library warm-up started with the
+service, which fetches the configured domain libraries ahead
+of the first jobs.
+
+=back
+
+=cut
+
+sub warm_up_status
+{
+    my($self, @args) = @_;
+
+# Authentication: none
+
+    if ((my $n = @args) != 0)
+    {
+	Bio::KBase::Exceptions::ArgumentValidationError->throw(error =>
+							       "Invalid argument count for function warm_up_status (received $n, expecting 0)");
+    }
+
+    my $result = $self->{client}->call($self->{url}, {
+	method => "KBaseGeneFamilies.warm_up_status",
+	params => \@args,
+    });
+    if ($result) {
+	if ($result->is_error) {
+	    Bio::KBase::Exceptions::JSONRPC->throw(error => $result->error_message,
+					       code => $result->content->{error}->{code},
+					       method_name => 'warm_up_status',
+					       data => $result->content->{error}->{error} # JSON::RPC::ReturnObject only supports JSONRPC 1.1 or 1.O
+					      );
+	} else {
+	    return wantarray ? @{$result->result} : $result->result->[0];
+	}
+    } else {
+        Bio::KBase::Exceptions::HTTP->throw(error => "Error invoking method warm_up_status",
+					    status_line => $self->{client}->status_line,
+					    method_name => 'warm_up_status',
+				       );
+    }
+}
+
+
+
 =head2 version
 
   $version = $obj->version()
@@ -1004,6 +1180,95 @@ out_result_id has a value which is a string
 
 
 
+=head2 SearchDomainsManyParams
+
+=over 4
+
+
+
+=item Description
+
+list<genome_ref> genomes - genomes for domain annotation process
+dms_ref dms_ref - set of domain models that will be searched in defined genomes
+string out_workspace - output workspace
+list<string> out_result_ids - ids of resulting objects of type DomainAnnotation,
+        one per genome, in the same order as genomes
+
+
+=item Definition
+
+=begin html
+
+<pre>
+a reference to a hash where the following keys are defined:
+genomes has a value which is a reference to a list where each element is a KBaseGeneFamilies.genome_ref
+dms_ref has a value which is a KBaseGeneFamilies.dms_ref
+out_workspace has a value which is a string
+out_result_ids has a value which is a reference to a list where each element is a string
+
+</pre>
+
+=end html
+
+=begin text
+
+a reference to a hash where the following keys are defined:
+genomes has a value which is a reference to a list where each element is a KBaseGeneFamilies.genome_ref
+dms_ref has a value which is a KBaseGeneFamilies.dms_ref
+out_workspace has a value which is a string
+out_result_ids has a value which is a reference to a list where each element is a string
+
+
+=end text
+
+=back
+
+
+
+=head2 WarmUpStatus
+
+=over 4
+
+
+
+=item Description
+
+string state - one of "not started", "running", "done" or "failed"
+int libraries_total - number of libraries being warmed up
+int libraries_ready - number of libraries whose files are in place
+list<string> errors - errors from libraries that couldn't be warmed up
+
+
+=item Definition
+
+=begin html
+
+<pre>
+a reference to a hash where the following keys are defined:
+state has a value which is a string
+libraries_total has a value which is an int
+libraries_ready has a value which is an int
+errors has a value which is a reference to a list where each element is a string
+
+</pre>
+
+=end html
+
+=begin text
+
+a reference to a hash where the following keys are defined:
+state has a value which is a string
+libraries_total has a value which is an int
+libraries_ready has a value which is an int
+errors has a value which is a reference to a list where each element is a string
+
+
+=end text
+
+=back
+
+
+
 =cut
 
 package Bio::KBase::KBaseGeneFamilies::Client::RpcClient;
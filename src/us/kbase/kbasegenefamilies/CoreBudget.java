@@ -0,0 +1,91 @@
+package us.kbase.kbasegenefamilies;
+
+/**
+   Process-wide budget of CPU cores shared by every search program
+   run by this service.  Each program run takes an allotment of
+   cores before it starts, is told to use that many threads, and
+   gives them back when it exits, so concurrent tasks, libraries and
+   shards together neither oversubscribe the machine nor leave cores
+   idle.
+
+   A run asks for the number of threads its work is worth, but
+   takes only what's free, waiting only when no core is free at all.
+*/
+public class CoreBudget {
+    /** residues of query per rpsblast thread; rpsblast threads scale poorly */
+    public static final long RPSBLAST_RESIDUES_PER_THREAD = 1000000L;
+    /** residues of query per hmmscan thread; hmmscan is slower per residue and scales well */
+    public static final long HMMSCAN_RESIDUES_PER_THREAD = 250000L;
+
+    private static CoreBudget instance = null;
+
+    private final int cores;
+    private int free;
+
+    /**
+       Makes a budget of a number of cores
+    */
+    public CoreBudget(int cores) {
+        this.cores = Math.max(1, cores);
+        this.free = this.cores;
+    }
+
+    /**
+       The budget shared by the whole service; its size is set by
+       core.count, or else is the number of processors
+    */
+    public static synchronized CoreBudget getInstance() throws Exception {
+        if (instance == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            String value = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps().get(KBaseGeneFamiliesServer.CFG_PROP_CORE_COUNT);
+            if (value != null)
+                cores = Integer.parseInt(value);
+            instance = new CoreBudget(cores);
+        }
+        return instance;
+    }
+
+    /**
+       Number of threads worth running a search program with, from
+       the size of its query and the program
+    */
+    public static int getWantedThreads(String program,
+                                       long queryResidues,
+                                       int cores) {
+        long perThread = program.equals(DomainSearchTask.HMMSCAN_PROGRAM) ?
+            HMMSCAN_RESIDUES_PER_THREAD :
+            RPSBLAST_RESIDUES_PER_THREAD;
+        long wanted = (queryResidues + perThread - 1) / perThread;
+        return (int)Math.max(1, Math.min(cores, wanted));
+    }
+
+    /**
+       Takes up to wanted cores, waiting until at least one is free.
+       Returns the number taken, which must be given back with
+       release().
+    */
+    public synchronized int acquire(int wanted) throws InterruptedException {
+        wanted = Math.max(1, Math.min(cores, wanted));
+        while (free == 0)
+            wait();
+        int taken = Math.min(wanted, free);
+        free -= taken;
+        return taken;
+    }
+
+    /**
+       Gives back cores taken by acquire()
+    */
+    public synchronized void release(int taken) {
+        free = Math.min(cores, free + taken);
+        notifyAll();
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public synchronized int getFreeCores() {
+        return free;
+    }
+}
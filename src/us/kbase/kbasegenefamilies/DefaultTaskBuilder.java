@@ -3,16 +3,15 @@ package us.kbase.kbasegenefamilies;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.List;
 import java.util.Map;
 
-import us.kbase.auth.AuthToken;
 import us.kbase.auth.TokenFormatException;
 import us.kbase.common.service.Tuple11;
 import us.kbase.common.service.UnauthorizedException;
 import us.kbase.common.taskqueue.TaskQueueConfig;
 import us.kbase.common.taskqueue.TaskRunner;
+import us.kbase.workspace.GetObjectInfoNewParams;
 import us.kbase.workspace.ListObjectsParams;
 import us.kbase.workspace.ObjectData;
 import us.kbase.workspace.ObjectIdentity;
@@ -28,7 +27,7 @@ public abstract class DefaultTaskBuilder<T> implements TaskRunner<T> {
     @Override
 	public void init(TaskQueueConfig queueCfg, Map<String, String> configParams) {
 	init(getDirParam(configParams, "scratch"), //getDirParam(configParams, "data.dir"),
-	     createDefaultObjectStorage(queueCfg.getWsUrl()));
+	     createDefaultObjectStorage(queueCfg.getWsUrl(), configParams));
     }
 
     public static ObjectStorage createDefaultObjectStorage(final WorkspaceClient client) {
@@ -58,53 +57,36 @@ public abstract class DefaultTaskBuilder<T> implements TaskRunner<T> {
 	    }
 			
 	    @Override
-		public String getUrl() {
-		return client.getURL().toString();
-	    }
-	};
-    }
-	
-    public static ObjectStorage createDefaultObjectStorage(final String wsUrl) {
-	return new ObjectStorage() {
-	    private WorkspaceClient client = null;
-			
-	    @Override
-		public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> saveObjects(
-																	      String authToken, SaveObjectsParams params) throws Exception {
-		return client(authToken).saveObjects(params);
-	    }
-			
-	    @Override
-		public List<ObjectData> getObjects(String authToken,
-						   List<ObjectIdentity> objectIds) throws Exception {
-		return client(authToken).getObjects(objectIds);
-	    }
-			
-	    @Override
-		public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> listObjects(
-																	      String authToken, ListObjectsParams params) throws Exception {
-		return client(authToken).listObjects(params);
-	    }
-			
-	    @Override
-		public List<ObjectData> getObjectSubset(String authToken, List<SubObjectIdentity> objectIds) throws Exception {
-		return client(authToken).getObjectSubset(objectIds);
+		public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> getObjectInfoNew(
+																	      String authToken, GetObjectInfoNewParams params) throws Exception {
+		return client.getObjectInfoNew(params);
 	    }
 			
 	    @Override
 		public String getUrl() {
-		return wsUrl;
+		return client.getURL().toString();
 	    }
-			
-	    private WorkspaceClient client(String authToken) throws Exception {
-		if (client != null)
-		    return client;
-		WorkspaceClient client = new WorkspaceClient(new URL(wsUrl), new AuthToken(authToken));
-		client.setAuthAllowedForHttp(true);
-		return client;
+
+	    @Override
+		public <T> T callStreaming(String authToken, StreamingCall<T> call) throws Exception {
+		return call.call(PooledObjectStorage.openConnection(getUrl(), authToken,
+								    PooledObjectStorage.DEFAULT_CONNECT_TIMEOUT_SECONDS * 1000,
+								    PooledObjectStorage.DEFAULT_READ_TIMEOUT_SECONDS * 1000));
 	    }
 	};
     }
+	
+    /**
+       Storage shared by every task using the workspace at wsUrl,
+       with clients pooled per token
+    */
+    public static ObjectStorage createDefaultObjectStorage(String wsUrl) {
+	return createDefaultObjectStorage(wsUrl, null);
+    }
+
+    public static ObjectStorage createDefaultObjectStorage(String wsUrl, Map<String, String> configParams) {
+	return PooledObjectStorage.getInstance(wsUrl, configParams);
+    }
 
     public DefaultTaskBuilder<T> init(File tempDir, /*File dataDir,*/ ObjectStorage ws) {
 	this.tempDir = tempDir;
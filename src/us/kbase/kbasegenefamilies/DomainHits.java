@@ -0,0 +1,263 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+   Compact store for the domain hits found in one genome, kept as
+   parallel primitive columns rather than as a tuple per hit.  Each
+   hit records the feature (by its position in the genome) and the
+   model (by ordinal) it was found in.  Hits are only turned into
+   DomainAnnotation tuples when the annotation is built, by
+   FeatureLayout.toAnnotation().
+
+   Bit scores are reported by the tools with only a few
+   significant digits, so they are stored as floats; they are read
+   back through their decimal form, so that 58.1 stays 58.1.
+
+   A store is filled by one thread, so each shard and library
+   search gets a store of its own.  Those are combined with merge(),
+   which doesn't depend on the order they're given in.  Statistics
+   of the hits, for the annotation's metadata, are kept as they're
+   added.
+*/
+public class DomainHits {
+    /** fewest hits worth ordering on a thread of their own in merge() */
+    private static final int MIN_HITS_PER_RANGE = 100000;
+
+    private final Map<String,Integer> modelOrdinals = new HashMap<String,Integer>();
+    private final List<String> modelNames = new ArrayList<String>();
+    private final HitStatistics stats = new HitStatistics();
+
+    private int size = 0;
+    private int[] features = new int[1024];
+    private int[] models = new int[1024];
+    private int[] starts = new int[1024];
+    private int[] stops = new int[1024];
+    private double[] evalues = new double[1024];
+    private float[] bitscores = new float[1024];
+    private double[] coverages = new double[1024];
+
+    /**
+       Adds a hit of a model to the feature at a given position in
+       the genome
+    */
+    public void add(int feature,
+                    String modelName,
+                    int start,
+                    int stop,
+                    double evalue,
+                    double bitscore,
+                    double coverage) {
+        if (size == features.length)
+            grow();
+        features[size] = feature;
+        models[size] = getModelOrdinal(modelName);
+        starts[size] = start;
+        stops[size] = stop;
+        evalues[size] = evalue;
+        bitscores[size] = (float)bitscore;
+        coverages[size] = coverage;
+        stats.add(feature, models[size], evalue, coverage);
+        size++;
+    }
+
+    /**
+       Merges stores of hits in one genome into one, keyed by
+       feature.  The hits are grouped by feature with a counting
+       sort in one pass over all stores; within a feature they are
+       ordered by model name, then position, then evalue.  Models
+       are numbered in name order.  The result is the same whatever
+       order the stores are given in.  Features are ordered in
+       ranges, which are spread over up to maxThreads threads.
+    */
+    public static DomainHits merge(List<DomainHits> parts,
+                                   int maxThreads) throws Exception {
+        final DomainHits rv = new DomainHits();
+        // number the models of all stores in name order
+        SortedSet<String> names = new TreeSet<String>();
+        for (DomainHits part : parts)
+            names.addAll(part.modelNames);
+        for (String name : names)
+            rv.getModelOrdinal(name);
+        int[][] modelMaps = new int[parts.size()][];
+        int total = 0;
+        int featureCount = 0;
+        for (int p = 0; p < parts.size(); p++) {
+            DomainHits part = parts.get(p);
+            modelMaps[p] = new int[part.modelNames.size()];
+            for (int m = 0; m < modelMaps[p].length; m++)
+                modelMaps[p][m] = rv.modelOrdinals.get(part.modelNames.get(m));
+            total += part.size;
+            for (int i = 0; i < part.size; i++)
+                featureCount = Math.max(featureCount, part.features[i] + 1);
+        }
+
+        // bucket the hits by feature
+        final int[] firstOf = new int[featureCount + 1];
+        for (DomainHits part : parts)
+            for (int i = 0; i < part.size; i++)
+                firstOf[part.features[i] + 1]++;
+        for (int f = 0; f < featureCount; f++)
+            firstOf[f + 1] += firstOf[f];
+        int[] fill = Arrays.copyOf(firstOf, featureCount);
+        rv.ensureCapacity(total);
+        for (int p = 0; p < parts.size(); p++) {
+            DomainHits part = parts.get(p);
+            for (int i = 0; i < part.size; i++) {
+                int to = fill[part.features[i]]++;
+                rv.features[to] = part.features[i];
+                rv.models[to] = modelMaps[p][part.models[i]];
+                rv.starts[to] = part.starts[i];
+                rv.stops[to] = part.stops[i];
+                rv.evalues[to] = part.evalues[i];
+                rv.bitscores[to] = part.bitscores[i];
+                rv.coverages[to] = part.coverages[i];
+                rv.stats.add(rv.features[to], rv.models[to], rv.evalues[to], rv.coverages[to]);
+            }
+        }
+        rv.size = total;
+
+        // order the hits of each feature, in ranges of features
+        // holding similar numbers of hits
+        int rangeCount = Math.max(1, Math.min(maxThreads, total / MIN_HITS_PER_RANGE));
+        List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+        int from = 0;
+        for (int r = 1; r <= rangeCount; r++) {
+            int to = from;
+            long target = (long)total * r / rangeCount;
+            while (to < featureCount && (r == rangeCount || firstOf[to + 1] <= target))
+                to++;
+            final int fromFeature = from;
+            final int toFeature = to;
+            jobs.add(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int f = fromFeature; f < toFeature; f++)
+                            rv.sortHits(firstOf[f], firstOf[f + 1]);
+                        return null;
+                    }
+                });
+            from = to;
+        }
+        if (jobs.size() == 1)
+            jobs.get(0).call();
+        else
+            DomainSearchTask.runConcurrently(jobs, jobs.size());
+        return rv;
+    }
+
+    /**
+       Statistics of the hits added so far
+    */
+    public HitStatistics getStatistics() {
+        return stats;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFeature(int hit) {
+        return features[hit];
+    }
+
+    public int getModel(int hit) {
+        return models[hit];
+    }
+
+    public String getModelName(int model) {
+        return modelNames.get(model);
+    }
+
+    public int getModelCount() {
+        return modelNames.size();
+    }
+
+    public int getStart(int hit) {
+        return starts[hit];
+    }
+
+    public int getStop(int hit) {
+        return stops[hit];
+    }
+
+    public double getEvalue(int hit) {
+        return evalues[hit];
+    }
+
+    public double getBitscore(int hit) {
+        return Double.parseDouble(Float.toString(bitscores[hit]));
+    }
+
+    public double getCoverage(int hit) {
+        return coverages[hit];
+    }
+
+    /**
+       Sorts hits [from, to) by model, then position, then evalue.
+       Features rarely have many hits, so this is an insertion sort.
+    */
+    private void sortHits(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int j = i;
+            while (j > from && compareHits(j - 1, j) > 0) {
+                swap(j - 1, j);
+                j--;
+            }
+        }
+    }
+
+    private int compareHits(int a, int b) {
+        int rv = Integer.compare(models[a], models[b]);
+        if (rv == 0)
+            rv = Integer.compare(starts[a], starts[b]);
+        if (rv == 0)
+            rv = Integer.compare(stops[a], stops[b]);
+        if (rv == 0)
+            rv = Double.compare(evalues[a], evalues[b]);
+        if (rv == 0)
+            rv = Float.compare(bitscores[b], bitscores[a]);
+        if (rv == 0)
+            rv = Double.compare(coverages[a], coverages[b]);
+        return rv;
+    }
+
+    private void swap(int a, int b) {
+        int m = models[a]; models[a] = models[b]; models[b] = m;
+        int start = starts[a]; starts[a] = starts[b]; starts[b] = start;
+        int stop = stops[a]; stops[a] = stops[b]; stops[b] = stop;
+        double evalue = evalues[a]; evalues[a] = evalues[b]; evalues[b] = evalue;
+        float bitscore = bitscores[a]; bitscores[a] = bitscores[b]; bitscores[b] = bitscore;
+        double coverage = coverages[a]; coverages[a] = coverages[b]; coverages[b] = coverage;
+    }
+
+    private int getModelOrdinal(String modelName) {
+        Integer rv = modelOrdinals.get(modelName);
+        if (rv == null) {
+            rv = modelNames.size();
+            modelNames.add(modelName);
+            modelOrdinals.put(modelName, rv);
+        }
+        return rv;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (features.length < capacity)
+            resize(capacity);
+    }
+
+    private void grow() {
+        resize(features.length * 2);
+    }
+
+    private void resize(int newLength) {
+        features = Arrays.copyOf(features, newLength);
+        models = Arrays.copyOf(models, newLength);
+        starts = Arrays.copyOf(starts, newLength);
+        stops = Arrays.copyOf(stops, newLength);
+        evalues = Arrays.copyOf(evalues, newLength);
+        bitscores = Arrays.copyOf(bitscores, newLength);
+        coverages = Arrays.copyOf(coverages, newLength);
+    }
+}
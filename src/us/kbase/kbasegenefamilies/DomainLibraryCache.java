@@ -0,0 +1,229 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import us.kbase.common.service.Tuple11;
+import us.kbase.kbasegenefamilies.util.StringIntMap;
+import us.kbase.kbasegenefamilies.util.Utils;
+import us.kbase.workspace.GetObjectInfoNewParams;
+import us.kbase.workspace.ObjectData;
+import us.kbase.workspace.ObjectIdentity;
+import us.kbase.workspace.SubObjectIdentity;
+
+/**
+   Process-wide cache of the parts of DomainModelSets and
+   DomainLibraries that a search uses.  A workspace object version
+   never changes, so entries are keyed by the resolved reference
+   (workspace id/object id/version) and are never stale.
+
+   A library is kept as its header, without its domain models, plus
+   an index from model accession to model length; the models
+   themselves are never fetched.  The cache is shared by every
+   user, so each request first looks up the object info of its
+   references with its own token, in one call.  That checks the
+   token can read them, even when they're cached already, and
+   resolves them to versions; the data of a version is only read
+   the first time it's seen.  Libraries and sets are few, so
+   entries are never evicted.
+*/
+public class DomainLibraryCache {
+    /**
+       Library fields kept in the cache; all but domains
+    */
+    public static final List<String> HEADER_PATHS = Collections.unmodifiableList(Arrays.asList(
+        "id", "source", "source_url", "version", "release_date", "program",
+        "domain_prefix", "dbxref_prefix", "library_files"));
+
+    private static final ConcurrentHashMap<String, FutureTask<Library>> libraries = new ConcurrentHashMap<String, FutureTask<Library>>();
+    private static final ConcurrentHashMap<String, Map<String,String>> domainLibs = new ConcurrentHashMap<String, Map<String,String>>();
+
+    /**
+       A library header with the length of each of its models
+    */
+    public static class Library {
+        private final DomainLibrary header;
+        private final StringIntMap modelLengths;
+
+        private Library(DomainLibrary header, StringIntMap modelLengths) {
+            this.header = header;
+            this.modelLengths = modelLengths;
+        }
+
+        /**
+           Library without its domains
+        */
+        public DomainLibrary getLibrary() {
+            return header;
+        }
+
+        /**
+           Length of a model, or -1 for a model not in the library
+        */
+        public int getModelLength(String accession) {
+            return modelLengths.get(accession, -1);
+        }
+
+        public int getModelCount() {
+            return modelLengths.size();
+        }
+    }
+
+    /**
+       Indexes a library that's already been read in full
+    */
+    public static Library fromLibrary(DomainLibrary dl) {
+        Map<String,DomainModel> domains = dl.getDomains();
+        StringIntMap lengths = new StringIntMap(domains.size());
+        for (Map.Entry<String,DomainModel> entry : domains.entrySet())
+            lengths.put(entry.getKey(), (int)entry.getValue().getLength().longValue());
+        return new Library(getHeader(dl), lengths);
+    }
+
+    /**
+       Returns the libraries of a DomainModelSet, by library name.
+       Only the set's library references are fetched.
+    */
+    public static Map<String,String> getDomainLibs(ObjectStorage storage,
+                                                   String token,
+                                                   String dmsRef) throws Exception {
+        String resolvedRef = resolve(storage, token, Arrays.asList(dmsRef)).get(0);
+        Map<String,String> rv = domainLibs.get(resolvedRef);
+        if (rv != null)
+            return rv;
+        ObjectData data = storage.getObjectSubset(token, Arrays.asList(new SubObjectIdentity().withRef(resolvedRef).withIncluded(Arrays.asList("domain_libs")))).get(0);
+        rv = Collections.unmodifiableMap(new LinkedHashMap<String,String>(data.getData().asClassInstance(DomainModelSet.class).getDomainLibs()));
+        domainLibs.putIfAbsent(resolvedRef, rv);
+        return rv;
+    }
+
+    /**
+       Returns a library with its model lengths.  Concurrent requests
+       for a version not yet cached share one fetch of its domains.
+    */
+    public static Library getLibrary(ObjectStorage storage,
+                                     String token,
+                                     String libraryRef) throws Exception {
+        return getLibraries(storage, token, Arrays.asList(libraryRef)).get(0);
+    }
+
+    /**
+       Returns several libraries, in the same order as their
+       references.  The references are resolved in one batch, and
+       the versions not yet cached are fetched at the same time.
+    */
+    public static List<Library> getLibraries(final ObjectStorage storage,
+                                             final String token,
+                                             List<String> libraryRefs) throws Exception {
+        final List<String> resolvedRefs = resolve(storage, token, libraryRefs);
+        List<Callable<Library>> jobs = new ArrayList<Callable<Library>>();
+        for (final String resolvedRef : resolvedRefs) {
+            jobs.add(new Callable<Library>() {
+                    @Override
+                    public Library call() throws Exception {
+                        return getCached(storage, token, resolvedRef);
+                    }
+                });
+        }
+        return DomainSearchTask.runConcurrently(jobs, jobs.size());
+    }
+
+    /**
+       Resolves references to object versions with the token's
+       object info lookup, which fails for any the token can't read
+    */
+    private static List<String> resolve(ObjectStorage storage,
+                                        String token,
+                                        List<String> refs) throws Exception {
+        List<ObjectIdentity> ids = new ArrayList<ObjectIdentity>();
+        for (String ref : refs)
+            ids.add(new ObjectIdentity().withRef(ref));
+        List<String> rv = new ArrayList<String>();
+        if (ids.isEmpty())
+            return rv;
+        for (Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>> info :
+                 storage.getObjectInfoNew(token, new GetObjectInfoNewParams().withObjects(ids)))
+            rv.add(DomainSearchTask.getRefFromObjectInfo(info));
+        return rv;
+    }
+
+    /**
+       Returns a cached library version, fetching it if no one else
+       is
+    */
+    private static Library getCached(final ObjectStorage storage,
+                                     final String token,
+                                     final String resolvedRef) throws Exception {
+        FutureTask<Library> task = new FutureTask<Library>(new Callable<Library>() {
+                @Override
+                public Library call() throws Exception {
+                    return fetchLibrary(storage, token, resolvedRef);
+                }
+            });
+        FutureTask<Library> running = libraries.putIfAbsent(resolvedRef, task);
+        if (running == null) {
+            task.run();
+            running = task;
+        }
+        try {
+            return running.get();
+        }
+        catch (ExecutionException e) {
+            // let a later request try again
+            libraries.remove(resolvedRef, running);
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+       Number of library versions cached
+    */
+    public static int getLibraryCount() {
+        return libraries.size();
+    }
+
+    /**
+       Forgets every cached set and library
+    */
+    public static void clear() {
+        libraries.clear();
+        domainLibs.clear();
+    }
+
+    /**
+       Reads the header and model lengths of a library version
+    */
+    private static Library fetchLibrary(ObjectStorage storage,
+                                        String token,
+                                        String resolvedRef) throws Exception {
+        List<String> paths = new ArrayList<String>(Arrays.asList("domains/*/length"));
+        paths.addAll(HEADER_PATHS);
+        Map<String,Object> data = storage.getObjectSubset(token, Arrays.asList(new SubObjectIdentity().withRef(resolvedRef).withIncluded(paths))).get(0).getData().asInstance();
+        @SuppressWarnings("unchecked")
+            Map<String,Map<String,Object>> domains = (Map<String,Map<String,Object>>)data.get("domains");
+        if (domains == null)
+            throw new IllegalStateException("Library " + resolvedRef + " has no domains");
+        StringIntMap lengths = new StringIntMap(domains.size());
+        for (Map.Entry<String,Map<String,Object>> entry : domains.entrySet())
+            lengths.put(entry.getKey(), ((Number)entry.getValue().get("length")).intValue());
+        data.remove("domains");
+        DomainLibrary header = Utils.getMapper().convertValue(data, DomainLibrary.class);
+        return new Library(getHeader(header), lengths);
+    }
+
+    private static DomainLibrary getHeader(DomainLibrary dl) {
+        return new DomainLibrary()
+            .withId(dl.getId())
+            .withSource(dl.getSource())
+            .withSourceUrl(dl.getSourceUrl())
+            .withVersion(dl.getVersion())
+            .withReleaseDate(dl.getReleaseDate())
+            .withProgram(dl.getProgram())
+            .withDomainPrefix(dl.getDomainPrefix())
+            .withDbxrefPrefix(dl.getDbxrefPrefix())
+            .withLibraryFiles(dl.getLibraryFiles());
+    }
+}
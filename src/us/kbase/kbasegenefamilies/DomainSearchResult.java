@@ -0,0 +1,49 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+   Hits found by searching one genome against a domain model set,
+   together with the layout of the genome's features.  This can be
+   turned into a DomainAnnotation, or written straight to JSON when
+   it's saved.
+*/
+public class DomainSearchResult {
+    private final FeatureLayout layout;
+    private final String domainModelSetRef;
+    private final DomainHits hits;
+
+    public DomainSearchResult(FeatureLayout layout,
+                              String domainModelSetRef,
+                              DomainHits hits) {
+        this.layout = layout;
+        this.domainModelSetRef = domainModelSetRef;
+        this.hits = hits;
+    }
+
+    public String getGenomeRef() {
+        return layout.getGenomeRef();
+    }
+
+    public String getDomainModelSetRef() {
+        return domainModelSetRef;
+    }
+
+    public DomainHits getHits() {
+        return hits;
+    }
+
+    public DomainAnnotation toAnnotation() {
+        return layout.toAnnotation(domainModelSetRef, hits);
+    }
+
+    /**
+       Writes the DomainAnnotation as JSON, returning its metadata
+    */
+    public Map<String,String> writeAnnotation(JsonGenerator jgen) throws IOException {
+        return layout.writeAnnotation(jgen, domainModelSetRef, hits);
+    }
+}
@@ -1,7 +1,12 @@
 package us.kbase.kbasegenefamilies;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
 import java.net.URL;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
@@ -11,36 +16,41 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 
 import us.kbase.common.service.Tuple11;
 import us.kbase.common.service.Tuple2;
-import us.kbase.common.service.Tuple4;
 import us.kbase.common.service.Tuple5;
-import us.kbase.common.utils.AlignUtil;
 import us.kbase.common.utils.CorrectProcess;
 import us.kbase.common.utils.FastaWriter;
 import us.kbase.common.utils.RpsBlastParser;
 import us.kbase.common.taskqueue.TaskQueueConfig;
 import us.kbase.kbasegenefamilies.bin.BinPreparator;
+import us.kbase.kbasegenefamilies.util.DomTblOutParser;
+import us.kbase.kbasegenefamilies.util.RangedDownloader;
+import us.kbase.kbasegenefamilies.util.RpsBlastStreamParser;
+import us.kbase.kbasegenefamilies.util.StreamingGenomeReader;
 import us.kbase.kbasegenefamilies.util.Utils;
-import us.kbase.kbasegenomes.Feature;
 import us.kbase.kbasegenomes.Genome;
 import us.kbase.workspace.ObjectData;
 import us.kbase.workspace.ObjectIdentity;
+import us.kbase.workspace.SubObjectIdentity;
 
-import org.strbio.IO;
-import org.strbio.io.*;
-import org.strbio.util.*;
+import org.apache.commons.io.IOUtils;
 import us.kbase.shock.client.*;
 
 /**
-   This class runs a domain search against a single genome, using
-   RPS-BLAST and HMMER.  Domain hits are saved in DomainAnnotation
-   workspace objects.
+   This class runs a domain search against a single genome, or a
+   batch of genomes, using RPS-BLAST and HMMER.  Domain hits are
+   saved in DomainAnnotation workspace objects, one per genome.
 */
 public class DomainSearchTask {
     private static String MAX_BLAST_EVALUE = "1e-04";
+
+    public static final String RPSBLAST_PROGRAM = "rpsblast-2.2.30";
+    public static final String HMMSCAN_PROGRAM = "hmmscan-3.1b1";
 	
     public static final String domainAnnotationWsType = "KBaseGeneFamilies.DomainAnnotation";
     public static final String domainAlignmentsWsType = "KBaseGeneFamilies.DomainAlignments";
 	
+    private static final ConcurrentHashMap<String,Long> shockFileSizes = new ConcurrentHashMap<String,Long>();
+
     protected File tempDir;
     protected ObjectStorage storage;
 
@@ -57,6 +67,31 @@ public class DomainSearchTask {
     public DomainAnnotation runDomainSearch(String token,
                                             String domainModelSetRef,
                                             String genomeRef) throws Exception {
+        return searchDomains(token, domainModelSetRef, genomeRef).toAnnotation();
+    }
+
+    /**
+       Runs a domain search on a single genome, returning the hits
+       found along with the layout of the genome, so the annotation
+       can be written out without building it in memory.
+    */
+    public DomainSearchResult searchDomains(String token,
+                                            String domainModelSetRef,
+                                            String genomeRef) throws Exception {
+        return searchDomainsMany(token, domainModelSetRef, Arrays.asList(genomeRef)).get(0);
+    }
+
+    /**
+       Runs a domain search on a batch of genomes, returning one
+       result per genome, in the same order.  The proteins of all
+       the genomes are searched together, so each library's database
+       is loaded by the search program once per batch rather than
+       once per genome.
+    */
+    public List<DomainSearchResult> searchDomainsMany(final String token,
+                                                      final String domainModelSetRef,
+                                                      List<String> genomeRefs) throws Exception {
+        final List<FeatureLayout> layouts = new ArrayList<FeatureLayout>();
         try {
             ProcessBuilder pb = new ProcessBuilder("/bin/df","-h");
             File outputFile = new File("/tmp/debug_gene_families.txt");
@@ -64,21 +99,89 @@ public class DomainSearchTask {
             Process p = pb.start();
             p.waitFor();
 
-            final DomainModelSet dms = storage.getObjects(token, Arrays.asList(new ObjectIdentity().withRef(domainModelSetRef))).get(0).getData().asClassInstance(DomainModelSet.class);
-            final Genome genome = storage.getObjects(token, Arrays.asList(new ObjectIdentity().withRef(genomeRef))).get(0).getData().asClassInstance(Genome.class);
-            Map<String,String> domainLibMap = dms.getDomainLibs();
-            DomainAnnotation rv = null;
-
-            // collect one set of annotations per library
-            for (String id : domainLibMap.values()) {
-                DomainLibrary dl = storage.getObjects(token, Arrays.asList(new ObjectIdentity().withRef(id))).get(0).getData().asClassInstance(DomainLibrary.class);
-                DomainAnnotation results = runDomainSearch(genome, genomeRef, domainModelSetRef, dl);
-
-                // combine all the results into one object
-                if (rv==null)
-                    rv = results;
-                else 
-                    combineData(results,rv);
+            // fetch the inputs at the same time: the set and its
+            // libraries in one job, while each genome is streamed
+            // into its layout, spooling its proteins, in another
+            final List<DomainLibraryCache.Library> libraries = new ArrayList<DomainLibraryCache.Library>();
+            final List<String> libraryRefs = new ArrayList<String>();
+            final FeatureLayout[] fetched = new FeatureLayout[genomeRefs.size()];
+            final boolean[] collected = {false};
+            List<Callable<Object>> inputs = new ArrayList<Callable<Object>>();
+            inputs.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        libraryRefs.addAll(DomainLibraryCache.getDomainLibs(storage, token, domainModelSetRef).values());
+                        libraries.addAll(DomainLibraryCache.getLibraries(storage, token, libraryRefs));
+                        return null;
+                    }
+                });
+            for (int i = 0; i < genomeRefs.size(); i++) {
+                final int pos = i;
+                final String genomeRef = genomeRefs.get(i);
+                inputs.add(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            FeatureLayout layout = getFeatureLayout(token, genomeRef);
+                            synchronized (fetched) {
+                                // a job still running after another
+                                // failed cleans up after itself
+                                if (collected[0])
+                                    layout.close();
+                                else
+                                    fetched[pos] = layout;
+                            }
+                            return null;
+                        }
+                    });
+            }
+            try {
+                // genomes can't be fetched faster than the workspace
+                // connections allow, so there's no use in more threads,
+                // each holding a spool open, than connections
+                runConcurrently(inputs, 1 + getFetchThreadCount());
+            }
+            finally {
+                // every layout is closed at the end, even if another
+                // input failed
+                synchronized (fetched) {
+                    collected[0] = true;
+                    for (FeatureLayout layout : fetched)
+                        if (layout != null)
+                            layouts.add(layout);
+                }
+            }
+
+            // search each library as a separate job; libraries are
+            // independent, so their searches can run at the same time.
+            // Every library is searched against the same proteins.
+            List<Callable<List<DomainHits>>> searches = new ArrayList<Callable<List<DomainHits>>>();
+            for (int i = 0; i < libraries.size(); i++) {
+                final String id = libraryRefs.get(i);
+                final DomainLibraryCache.Library library = libraries.get(i);
+                searches.add(new Callable<List<DomainHits>>() {
+                        @Override
+                        public List<DomainHits> call() throws Exception {
+                            // don't fetch files the warm-up is fetching
+                            LibraryWarmUp.getInstance().awaitLibrary(id);
+                            return searchLibrary(layouts, library);
+                        }
+                    });
+            }
+            List<List<DomainHits>> results = runConcurrently(searches, getLibraryThreadCount());
+
+            // merge the results of the libraries for each genome
+            List<DomainSearchResult> rv = new ArrayList<DomainSearchResult>();
+            for (int i = 0; i < layouts.size(); i++) {
+                List<DomainHits> parts = new ArrayList<DomainHits>();
+                for (List<DomainHits> result : results)
+                    parts.add(result.get(i));
+                DomainHits hits = DomainHits.merge(parts, getLibraryThreadCount());
+                for (int lib = 0; lib < libraries.size(); lib++) {
+                    DomainLibrary dl = libraries.get(lib).getLibrary();
+                    hits.getStatistics().setLibraryHits(dl.getId(), parts.get(lib).size());
+                    hits.getStatistics().setLibraryEngine(dl.getId(), getSearchEngine(dl));
+                }
+                rv.add(new DomainSearchResult(layouts.get(i), domainModelSetRef, hits));
             }
             return rv;
         }
@@ -88,6 +191,168 @@ public class DomainSearchTask {
             pw.close();
             throw e;
         }
+        finally {
+            // the layouts are kept to write the annotations, but
+            // their spooled sequences aren't needed any more
+            for (FeatureLayout layout : layouts)
+                try { layout.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /**
+       Lays out the features of a genome, streaming it from the
+       workspace so its protein sequences are spooled to disk as
+       they're read.  Storage with no workspace URL is read through
+       a projection instead.
+    */
+    public FeatureLayout getFeatureLayout(String token,
+                                          String genomeRef) throws Exception {
+        if (storage.getUrl() == null)
+            return new FeatureLayout(getGenome(token, genomeRef), genomeRef);
+        return StreamingGenomeReader.readLayout(storage, token, genomeRef, tempDir);
+    }
+
+    /**
+       Fetches only the fields of a genome that the search uses
+    */
+    public GenomeProjection getGenome(String token,
+                                      String genomeRef) throws Exception {
+        return storage.getObjectSubset(token, Arrays.asList(new SubObjectIdentity().withRef(genomeRef).withIncluded(GenomeProjection.INCLUDED_PATHS))).get(0).getData().asClassInstance(GenomeProjection.class);
+    }
+
+    /**
+       Estimates the memory a search will need, from metadata that's
+       cheap to get: the protein lengths of the genomes' features,
+       read as a subset of each genome, and the sizes of the
+       libraries' files in Shock.  The libraries' headers come from
+       the library cache, which the search itself then reuses.
+    */
+    public long estimateFootprint(String token,
+                                  String domainModelSetRef,
+                                  List<String> genomeRefs) throws Exception {
+        long featureCount = 0;
+        long residues = 0;
+        List<SubObjectIdentity> genomeIds = new ArrayList<SubObjectIdentity>();
+        for (String genomeRef : genomeRefs)
+            genomeIds.add(new SubObjectIdentity().withRef(genomeRef).withIncluded(Arrays.asList("features/[*]/protein_translation_length")));
+        for (ObjectData data : storage.getObjectSubset(token, genomeIds)) {
+            Map<String,Object> genome = data.getData().asInstance();
+            @SuppressWarnings("unchecked")
+                List<Map<String,Object>> features = (List<Map<String,Object>>)genome.get("features");
+            if (features == null)
+                continue;
+            for (Map<String,Object> feature : features) {
+                featureCount++;
+                Object length = feature.get("protein_translation_length");
+                residues += (length instanceof Number) ?
+                    ((Number)length).longValue() :
+                    MemoryAdmission.DEFAULT_PROTEIN_LENGTH;
+            }
+        }
+
+        List<String> libraryRefs = new ArrayList<String>(DomainLibraryCache.getDomainLibs(storage, token, domainModelSetRef).values());
+        List<String> programs = new ArrayList<String>();
+        List<Long> sizes = new ArrayList<Long>();
+        BasicShockClient client = new BasicShockClient(new URL(getShockUrl()));
+        for (DomainLibraryCache.Library library : DomainLibraryCache.getLibraries(storage, token, libraryRefs)) {
+            DomainLibrary dl = library.getLibrary();
+            long size = 0;
+            for (Handle h : dl.getLibraryFiles())
+                size += getShockFileSize(client, h.getShockId());
+            programs.add(dl.getProgram());
+            sizes.add(size);
+        }
+        return MemoryAdmission.estimateBytes(featureCount, residues, programs, sizes);
+    }
+
+    /**
+       Size of a Shock node's file; nodes never change, so sizes are
+       remembered
+    */
+    private static long getShockFileSize(BasicShockClient client,
+                                         String shockId) throws Exception {
+        Long rv = shockFileSizes.get(shockId);
+        if (rv == null) {
+            rv = client.getNode(new ShockNodeId(shockId)).getFileInformation().getSize();
+            shockFileSizes.put(shockId, rv);
+        }
+        return rv;
+    }
+
+    /**
+       Runs a list of jobs on a bounded pool of threads, returning
+       their results in the same order as the jobs.  If any job
+       fails, the remaining ones are cancelled and the first error
+       is rethrown.
+    */
+    public static <T> List<T> runConcurrently(List<Callable<T>> jobs,
+                                              int maxThreads) throws Exception {
+        List<T> rv = new ArrayList<T>();
+        if (jobs.isEmpty())
+            return rv;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(maxThreads, jobs.size())));
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (Callable<T> job : jobs)
+                futures.add(pool.submit(job));
+            for (Future<T> f : futures) {
+                try {
+                    rv.add(f.get());
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception)cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+            return rv;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+       Number of libraries that are searched at the same time for
+       one genome.
+    */
+    static int getLibraryThreadCount() throws Exception {
+        return getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_LIBRARY_THREAD_COUNT,
+                                 Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+       Number of genomes of a batch that are fetched at the same
+       time, as many as workspace.max.connections allows calls
+    */
+    private static int getFetchThreadCount() throws Exception {
+        return Math.max(1, getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_WS_MAX_CONNECTIONS,
+                                             PooledObjectStorage.DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+       Returns the result cache, or null if it's turned off by
+       setting its size to 0.
+    */
+    private ResultCache getResultCache() throws Exception {
+        int sizeMb = getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_RESULT_CACHE_SIZE_MB, 1024);
+        if (sizeMb <= 0)
+            return null;
+        String dirName = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps().get(KBaseGeneFamiliesServer.CFG_PROP_RESULT_CACHE_DIR);
+        File dir = (dirName == null || dirName.trim().isEmpty()) ? new File(tempDir, "result_cache") : new File(dirName.trim());
+        return new ResultCache(dir, sizeMb * 1024L * 1024L);
+    }
+
+    /**
+       Reads an integer parameter from the deployment configuration,
+       returning the default if it's not set.
+    */
+    private static int getIntConfigParam(String param, int defaultValue) throws Exception {
+        String value = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps().get(param);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Integer.parseInt(value.trim());
     }
 
     /**
@@ -121,34 +386,6 @@ public class DomainSearchTask {
         return metadata;
     }
     
-    /**
-       combines annotation data from two DomainAnnotation objects;
-       must be from the same genome.  Note that this will fail if
-       results are in different order, or if two libraries have
-       models with the same accessions
-    */
-    public void combineData(DomainAnnotation source,
-                            DomainAnnotation target) throws Exception {
-        if (!source.getGenomeRef().equals(target.getGenomeRef()))
-            throw new IllegalArgumentException("Error: DomainAnnotation objects from different genomes can't be combined");
-        if (!source.getUsedDmsRef().equals(target.getUsedDmsRef()))
-            throw new IllegalArgumentException("Error: DomainAnnotation objects from different domain model sets can't be combined");
-	
-        Map<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>> sourceData = source.getData();
-        Map<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>> targetData = target.getData();
-        for (String contigID : sourceData.keySet()) {
-            List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> sourceElements = sourceData.get(contigID);
-            List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> targetElements = targetData.get(contigID);
-            ListIterator<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> sIterator = sourceElements.listIterator();
-            ListIterator<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> tIterator = targetElements.listIterator();
-            while (sIterator.hasNext()) {
-                Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>> sElement = sIterator.next();
-                Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>> tElement = tIterator.next();
-                tElement.getE5().putAll(sElement.getE5());
-            }
-        }
-    }
-
     /**
        Runs a domain search on a single genome, returning annotations.
        This works on a single library, but needs metadata (references
@@ -158,273 +395,349 @@ public class DomainSearchTask {
                                             String genomeRef,
                                             String domainModelSetRef,
                                             DomainLibrary dl) throws Exception {
-						
-        String genomeName = genome.getScientificName();
-        File dbFile = new File(getDomainsDir().getPath()+"/"+dl.getLibraryFiles().get(0).getFileName());
-        File fastaFile = File.createTempFile("proteome", ".fasta", tempDir);
-        File outFile = null;
+        FeatureLayout layout = new FeatureLayout(genome, genomeRef);
+        try {
+            return layout.toAnnotation(domainModelSetRef, searchLibrary(layout, dl));
+        }
+        finally {
+            layout.close();
+        }
+    }
+
+    /**
+       Searches the proteins of one genome against a single library,
+       returning the hits found.
+    */
+    public DomainHits searchLibrary(FeatureLayout layout,
+                                    DomainLibrary dl) throws Exception {
+        return searchLibrary(Arrays.asList(layout), dl).get(0);
+    }
+
+    /**
+       Searches the proteins of a batch of genomes against a single
+       library, returning the hits found in each genome.  Proteins
+       are named in the query by their position in the genome plus
+       an offset for the genome, so the ids stay numeric and unique
+       across the batch.
+    */
+    public List<DomainHits> searchLibrary(List<FeatureLayout> layouts,
+                                          DomainLibrary dl) throws Exception {
+        return searchLibrary(layouts, DomainLibraryCache.fromLibrary(dl));
+    }
 
-        final Map<String,Long> modelNameToLength = new HashMap<String,Long>();
+    /**
+       Searches the proteins of a batch of genomes against a cached
+       library, whose model lengths are used to compute coverage.
+       This replaces modelNameToRefConsensus in Roman's legacy code.
+    */
+    public List<DomainHits> searchLibrary(List<FeatureLayout> layouts,
+                                          final DomainLibraryCache.Library library) throws Exception {
+        DomainLibrary dl = library.getLibrary();
+        final File dbFile = new File(getLibraryDir(dl), dl.getLibraryFiles().get(0).getFileName());
+        List<File> shardFiles = new ArrayList<File>();
+        final List<Integer> shardSequences = new ArrayList<Integer>();
+        List<File> libraryFiles = new ArrayList<File>();
 
-        // save the length of each model, to compute coverage.
-        // This replaces modelNameToRefConsensus in Roman's legacy code:
-        Map<String,DomainModel> libDomains = dl.getDomains();
-        for (String accession : libDomains.keySet()) {
-            DomainModel m = libDomains.get(accession);
-            modelNameToLength.put(accession, m.getLength());
+        // reuse the hits from an earlier search of the same proteins
+        // against the same library, if there was one
+        DomainHits[] genomeHits = new DomainHits[layouts.size()];
+        ResultCache cache = getResultCache();
+        String[] cacheKeys = new String[layouts.size()];
+        if (cache != null) {
+            String engine = getSearchEngine(dl);
+            for (int i = 0; i < layouts.size(); i++) {
+                cacheKeys[i] = ResultCache.getKey(layouts.get(i), dl, engine);
+                genomeHits[i] = cache.get(cacheKeys[i]);
+            }
         }
 
-        // make sure we have local copies of all library files
-        prepareLibraryFiles(dl);
-	
-        try {
-            final Map<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>> contig2prots = 
-                new TreeMap<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>>();
-            FastaWriter fw = new FastaWriter(fastaFile);
-            int protCount = 0;
-            final Map<Integer, Tuple2<String, Long>> posToContigFeatIndex = new LinkedHashMap<Integer, Tuple2<String, Long>>();
-            Map<String, Tuple2<String, Long>> featIdToContigFeatIndex = new TreeMap<String, Tuple2<String, Long>>();
-            // to work around genomes with missing contigs:
-            HashSet<String> realContigs = new HashSet<String>();
-            // write out each protein sequentially into a FASTA file,
-            // keeping track of its (first) position in the genome
+        // put the proteins of the genomes still to be searched in
+        // one query set
+        int[] offsets = getQueryOffsets(layouts, genomeHits);
+        List<Integer> queryIds = new ArrayList<Integer>();
+        List<FeatureLayout> queryLayouts = new ArrayList<FeatureLayout>();
+        long queryResidues = 0;
+        List<Integer> searched = new ArrayList<Integer>();
+        for (int i = 0; i < layouts.size(); i++) {
+            if (offsets[i] < 0)
+                continue;
+            FeatureLayout layout = layouts.get(i);
+            searched.add(i);
+            for (int pos : layout.getProteinPositions())
+                queryIds.add(offsets[i] + pos);
+            queryLayouts.add(layout);
+            queryResidues += layout.getTotalResidues();
+        }
+
+        if (!searched.isEmpty()) {
             try {
-                List<Feature> features = genome.getFeatures();
-                int pos = -1;
-                for (Feature feat : features) {
-                    pos++;
-                    String seq = feat.getProteinTranslation();
-                    if (feat.getLocation().size() < 1)
-                        continue;
-                    Tuple4<String, Long, String, Long> loc = feat.getLocation().get(0);
-                    String contigId = loc.getE1();
-                    String featId = feat.getId();
-                    if ((contigId==null) || (featId==null))
-                        continue;
-                    if (seq != null && !seq.isEmpty()) {
-                        fw.write("" + pos, seq);
-                        Tuple2<String, Long> contigFeatIndex = new Tuple2<String, Long>().withE1(contigId);
-                        posToContigFeatIndex.put(pos, contigFeatIndex);
-                        featIdToContigFeatIndex.put(featId, contigFeatIndex);
-                        protCount++;
-                        realContigs.add(contigId);
-                    }
-                    List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> prots = contig2prots.get(contigId);
-                    if (prots == null) {
-                        prots = new ArrayList<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>();
-                        contig2prots.put(contigId, prots);
-                    }
-                    long start = loc.getE3().equals("-") ? (loc.getE2() - loc.getE4() + 1) : loc.getE2();
-                    // fake the stop site based on protein length
-                    long stop;
-                    if (seq != null)
-                        stop = start - 1 + ((seq.length()+1) * 3);
-                    else {
-                        // correct calculation for end of 1st exon:
-                        stop = loc.getE3().equals("-") ? loc.getE2() : (loc.getE2() + loc.getE4() - 1);
+                // make sure we have local copies of all library files
+                libraryFiles = prepareLibraryFiles(dl);
+
+                // write the distinct proteins out into one or more FASTA
+                // files; large query sets are split into shards of
+                // similar size, which are searched at the same time
+                shardFiles = writeShards(queryIds, queryLayouts, queryResidues, shardSequences);
+
+                // run the appropriate annotation program
+                final String program = dl.getProgram();
+                if (!program.equals(RPSBLAST_PROGRAM) && !program.equals(HMMSCAN_PROGRAM))
+                    throw new Exception("unsupported domain search program "+program);
+
+                // each shard's hits are kept apart, and merged by
+                // feature once all are found
+                List<Callable<DomainHits>> searches = new ArrayList<Callable<DomainHits>>();
+                for (int shard = 0; shard < shardFiles.size(); shard++) {
+                    final File shardFile = shardFiles.get(shard);
+                    final int sequences = shardSequences.get(shard);
+                    searches.add(new Callable<DomainHits>() {
+                            @Override
+                            public DomainHits call() throws Exception {
+                                DomainHits shardHits = new DomainHits();
+                                searchShard(program, dbFile, shardFile, sequences, library, shardHits);
+                                return shardHits;
+                            }
+                        });
+                }
+                DomainHits hits = DomainHits.merge(runConcurrently(searches, shardFiles.size()), 1);
+
+                splitHits(hits, layouts, offsets, genomeHits);
+                if (cache != null) {
+                    for (int i : searched) {
+                        try {
+                            cache.put(cacheKeys[i], genomeHits[i]);
+                        }
+                        catch (IOException e) {
+                            System.err.println("Can't save hits in result cache: "+e.getMessage());
+                        }
                     }
-                    long dir = loc.getE3().equals("-") ? -1 : +1;
-                    prots.add(new Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>()
-                              .withE1(feat.getId())
-                              .withE2(start)
-                              .withE3(stop)
-                              .withE4(dir)
-                              .withE5(new TreeMap<String, List<Tuple5<Long, Long, Double, Double, Double>>>()));
                 }
             }
             finally {
-                try { fw.close(); } catch (Exception ignore) {}
-            }
-            if (protCount == 0)
-                throw new IllegalStateException("There are no protein translations in genome " + genomeName + " (" + genomeRef + ")");
-
-            // make contig-based indices
-            HashMap<String,Long> contigLengths = new HashMap<String,Long>();
-
-            // first, get the reported contigs from genome object
-            List<String> genomeContigs = genome.getContigIds();
-            List<Long> genomeContigLengths = genome.getContigLengths();
-            int nContigs = 0;
-            if (genomeContigs != null)
-                nContigs = genomeContigs.size();
-            for (int contigPos = 0; contigPos < nContigs; contigPos++) {
-                String contigId = genomeContigs.get(contigPos);
-                if (!contig2prots.containsKey(contigId))
-                    continue;
-                long contigLength = 1;
-                if ((genomeContigLengths != null) &&
-                    (genomeContigLengths.size() > contigPos))
-                    contigLength = genomeContigLengths.get(contigPos).longValue();
-                contigLengths.put(contigId, new Long(contigLength));
-            }
-            // next, add any missing contigs as length 1
-            for (String contigId : realContigs) {
-                if (contigLengths.get(contigId) == null)
-                    contigLengths.put(contigId, new Long(1));
+                for (File shardFile : shardFiles)
+                    try { shardFile.delete(); } catch (Exception ignore) {}
+                LibraryFileCache fileCache = getLibraryFileCache();
+                for (File f : libraryFiles)
+                    fileCache.release(f);
             }
+        }
 
-            // map contigs to "size" (both length and # of proteins)
-            Map<String, Tuple2<Long, Long>> contigSizes = new TreeMap<String, Tuple2<Long, Long>>();
-            for (String contigId : contigLengths.keySet()) {
-                List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> prots = contig2prots.get(contigId);
-                Collections.sort(prots, new Comparator<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>() {
-                        @Override
-                        public int compare(Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>> o1,
-                                           Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>> o2) {
-                            return Long.compare(o1.getE2(), o2.getE2());
-                        }
-                    });
-                long contigLength = contigLengths.get(contigId).longValue();
-                contigSizes.put(contigId, new Tuple2<Long, Long>().withE1(contigLength).withE2((long)prots.size()));
-                for (int i=0; i<prots.size(); i++) {
-                    String featId = prots.get(i).getE1();
-                    Tuple2<String, Long> contigFeatIndex = featIdToContigFeatIndex.get(featId);
-                    if (contigFeatIndex != null)
-                        contigFeatIndex.setE2((long)i);
-                }
+        List<DomainHits> rv = new ArrayList<DomainHits>();
+        for (int i = 0; i < layouts.size(); i++)
+            rv.add(layouts.get(i).addCopies(genomeHits[i]));
+        return rv;
+    }
+
+    /**
+       Numbers the features of a batch of genomes in one query set,
+       giving the offset of each genome still to be searched, or -1
+       for those with hits already
+    */
+    public static int[] getQueryOffsets(List<FeatureLayout> layouts,
+                                        DomainHits[] genomeHits) {
+        int[] rv = new int[layouts.size()];
+        int offset = 0;
+        for (int i = 0; i < layouts.size(); i++) {
+            if (genomeHits[i] != null) {
+                rv[i] = -1;
+                continue;
             }
+            rv[i] = offset;
+            offset += layouts.get(i).getFeatureCount();
+        }
+        return rv;
+    }
 
-            // run the appropriate annotation program
-            String program = dl.getProgram();
+    /**
+       Gives each hit of a query set back to the genome it was
+       found in, by the offsets from getQueryOffsets().  Every
+       searched genome gets a store of hits, even if it has none.
+       A genome with no features shares its offset with the next
+       one, so only genomes with features are looked up.
+    */
+    public static void splitHits(DomainHits hits,
+                                 List<FeatureLayout> layouts,
+                                 int[] offsets,
+                                 DomainHits[] genomeHits) {
+        List<Integer> genomes = new ArrayList<Integer>();
+        for (int i = 0; i < layouts.size(); i++) {
+            if (offsets[i] < 0)
+                continue;
+            genomeHits[i] = new DomainHits();
+            if (layouts.get(i).getFeatureCount() > 0)
+                genomes.add(i);
+        }
+        // the offsets of these increase strictly
+        int[] genomeOffsets = new int[genomes.size()];
+        for (int k = 0; k < genomes.size(); k++)
+            genomeOffsets[k] = offsets[genomes.get(k)];
+        for (int hit = 0; hit < hits.size(); hit++) {
+            int id = hits.getFeature(hit);
+            int k = Arrays.binarySearch(genomeOffsets, id);
+            if (k < 0)
+                k = -k - 2;
+            if (k < 0 || id - genomeOffsets[k] >= layouts.get(genomes.get(k)).getFeatureCount())
+                throw new IllegalStateException("Hit of unknown query " + id);
+            int genome = genomes.get(k);
+            genomeHits[genome].add(id - offsets[genome],
+                                   hits.getModelName(hits.getModel(hit)),
+                                   hits.getStart(hit),
+                                   hits.getStop(hit),
+                                   hits.getEvalue(hit),
+                                   hits.getBitscore(hit),
+                                   hits.getCoverage(hit));
+        }
+    }
 
-            if (program.equals("rpsblast-2.2.30")) {		
-                outFile = runRpsBlast(dbFile, fastaFile);
-                RpsBlastParser.processRpsOutput(outFile, new RpsBlastParser.RpsBlastCallback() {
-                    @Override
-                    public void next(String query,
-                                     String subject,
-                                     int qstart,
-                                     String qseq,
-                                     int sstart,
-                                     String sseq,
-                                     String evalue,
-                                     double bitscore,
-                                     double ident) throws Exception {
-                        Long modelLength = modelNameToLength.get(subject);
-                        if (modelLength == null)
-                            throw new IllegalStateException("Unexpected subject name in prs blast result: " + subject);
-                        int featurePos = Integer.parseInt(query);
-                        String alignedSeq = AlignUtil.removeGapsFromSubject((int)(modelLength.longValue()), qseq, sstart - 1, sseq);
-                        int coverage = 100 - AlignUtil.getGapPercent(alignedSeq);
-                        Tuple2<String, Long> contigIdFeatIndex = posToContigFeatIndex.get(featurePos);
-                        long featureIndex = contigIdFeatIndex.getE2();
-                        Map<String, List<Tuple5<Long, Long, Double, Double, Double>>> domains = contig2prots.get(contigIdFeatIndex.getE1()).get((int)featureIndex).getE5();
-                        List<Tuple5<Long, Long, Double, Double, Double>> places = domains.get(subject);
-                        if (places == null) {
-                            places = new ArrayList<Tuple5<Long, Long, Double, Double, Double>>();
-                            domains.put(subject, places);
-                        }
-                        int qlen = AlignUtil.removeGaps(qseq).length();
-                        places.add(new Tuple5<Long, Long, Double, Double, Double>()
-                                   .withE1((long)qstart)
-                                   .withE2((long)qstart + qlen - 1)
-                                   .withE3(Double.parseDouble(evalue))
-                                   .withE4(bitscore)
-                                   .withE5(coverage / 100.0));
-                    }
-                });
+    /**
+       Gets a library ready to search without searching anything:
+       its files are fetched into the library file cache.
+    */
+    public void warmUpLibrary(DomainLibrary dl) throws Exception {
+        String program = dl.getProgram();
+        if (!program.equals(RPSBLAST_PROGRAM) && !program.equals(HMMSCAN_PROGRAM))
+            throw new Exception("unsupported domain search program "+program);
+        LibraryFileCache fileCache = getLibraryFileCache();
+        for (File f : prepareLibraryFiles(dl))
+            fileCache.release(f);
+    }
+
+    /**
+       Writes proteins into FASTA files, one per shard.  The number
+       of shards depends on the total number of residues; each
+       protein is named by its numeric query id.  The sequences are
+       copied from the layouts' spools, in query id order.  The
+       number of proteins in each file is added to sequenceCounts.
+    */
+    private List<File> writeShards(List<Integer> queryIds,
+                                   List<FeatureLayout> layouts,
+                                   long totalResidues,
+                                   List<Integer> sequenceCounts) throws Exception {
+        int shardCount = ProteomeSharder.getShardCount(totalResidues,
+                                                       getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_SHARD_COUNT, 1),
+                                                       getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_SHARD_MIN_RESIDUES, ProteomeSharder.DEFAULT_MIN_SHARD_RESIDUES));
+        int[] lengths = new int[queryIds.size()];
+        int i = 0;
+        for (FeatureLayout layout : layouts) {
+            ProteinSpool spool = layout.getProteinSpool();
+            for (int index = 0; index < spool.getCount(); index++)
+                lengths[i++] = spool.getLength(index);
+        }
+        shardCount = Math.min(shardCount, lengths.length);
+        int[] shardOf = ProteomeSharder.assignShards(lengths, shardCount);
+        int[] counts = new int[shardCount];
+        for (int shard : shardOf)
+            counts[shard]++;
+        for (int count : counts)
+            sequenceCounts.add(count);
+        List<File> rv = new ArrayList<File>();
+        OutputStream[] writers = new OutputStream[shardCount];
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                File f = File.createTempFile("proteome", ".fasta", tempDir);
+                rv.add(f);
+                writers[shard] = new BufferedOutputStream(new FileOutputStream(f));
             }
-            else if (program.equals("hmmscan-3.1b1")) {
-                outFile = runHmmer(dbFile, fastaFile);
-                BufferedReader infile = IO.openReader(outFile.getPath());
-                if (infile==null)
-                    throw new Exception("failed to open HMMER output");
-
-                int featurePos = -1;
-                while (infile.ready()) {
-                    String buffer = infile.readLine();
-                    if (buffer==null) {
-                        infile.close();
-                        break;
-                    }
-                    if (buffer.startsWith("Query:"))
-                        featurePos = StringUtil.atoi(buffer,7);
-                    else if (buffer.startsWith("Domain annotation for each model (and alignments):")) {
-                        buffer = infile.readLine();
-
-                        while (buffer.startsWith(">> ")) {
-                            Long modelLength = null;
-                            String modelName = null;
-                            StringTokenizer st = new StringTokenizer(buffer);
-                            try {
-                                st.nextToken();
-                                modelName = st.nextToken();
-
-                                modelLength = modelNameToLength.get(modelName);
-                                if (modelLength == null)
-                                    throw new IllegalStateException("No recognized domain in HMMER output line '"+buffer+"'");
-                            }
-                            catch (NoSuchElementException e) {
-                                throw new Exception("Format error in HMMER output line '"+buffer+"'");
-                            }
-                            buffer = infile.readLine();
-                            buffer = infile.readLine();
-                            buffer = infile.readLine();
-
-                            if (buffer.startsWith(">> "))
-                                continue;
-
-                            while (buffer.length() > 0) {
-                                st = new StringTokenizer(buffer.substring(7));
-                                try {
-                                    double score = StringUtil.atod(st.nextToken());
-                                    st.nextToken(); // bias
-                                    st.nextToken(); // c-evalue
-
-                                    String eString = st.nextToken();  // i-evalue
-                                    // these numbers are 1-offset, for
-                                    // compatibility with RPS-BLAST parsing code:
-                                    int hStart = StringUtil.atoi(st.nextToken());
-                                    int hLength = StringUtil.atoi(st.nextToken()) - hStart + 1;
-
-                                    st.nextToken(); // bounds
-
-                                    // these numbers are 1-offset, for
-                                    // compatibility with RPS-BLAST parsing code:
-                                    int start = StringUtil.atoi(st.nextToken());
-                                    int l = StringUtil.atoi(st.nextToken()) - start + 1;
-
-                                    // save this hit
-                                    double coverage = (double)hLength / (double)modelLength;
-                                    Tuple2<String, Long> contigIdFeatIndex = posToContigFeatIndex.get(featurePos);
-                                    long featureIndex = contigIdFeatIndex.getE2();
-                                    Map<String, List<Tuple5<Long, Long, Double, Double, Double>>> domains = contig2prots.get(contigIdFeatIndex.getE1()).get((int)featureIndex).getE5();
-                                    List<Tuple5<Long, Long, Double, Double, Double>> places = domains.get(modelName);
-                                    if (places == null) {
-                                        places = new ArrayList<Tuple5<Long, Long, Double, Double, Double>>();
-                                        domains.put(modelName, places);
-                                    }
-                                    places.add(new Tuple5<Long, Long, Double, Double, Double>()
-                                               .withE1((long)start)
-                                               .withE2((long)start + l - 1)
-                                               .withE3(Double.parseDouble(eString))
-                                               .withE4(score)
-                                               .withE5(coverage));
-                                }
-                                catch (NoSuchElementException e) {
-                                    throw new Exception("Format error in HMMER output line '"+buffer+"'");
-                                }
-                                buffer = infile.readLine();
-                            }
-                        }
-                    }
-                }
+            i = 0;
+            for (FeatureLayout layout : layouts) {
+                ProteinSpool spool = layout.getProteinSpool();
+                for (int index = 0; index < spool.getCount(); index++, i++)
+                    spool.writeFasta(index, "" + queryIds.get(i), writers[shardOf[i]]);
             }
-            else
-                throw new Exception("unsupported domain search program "+program);
-	    
-            DomainAnnotation rv = new DomainAnnotation()
-                .withGenomeRef(genomeRef)
-                .withUsedDmsRef(domainModelSetRef)
-                .withData(contig2prots)
-                .withContigToSizeAndFeatureCount(contigSizes)
-                .withFeatureToContigAndIndex(featIdToContigFeatIndex);
-            return rv;
+        }
+        catch (Exception e) {
+            for (OutputStream os : writers)
+                if (os != null)
+                    try { os.close(); } catch (Exception ignore) {}
+            for (File f : rv)
+                try { f.delete(); } catch (Exception ignore) {}
+            throw e;
+        }
+        for (OutputStream os : writers)
+            os.close();
+        return rv;
+    }
+
+    /**
+       Searches one FASTA file against a library, adding the hits
+       to the store as the program reports them.  Shards of one proteome never share features, so
+       several shards may be searched at the same time.  Each search
+       runs with as many threads as it gets from the core budget.
+    */
+    private void searchShard(String program,
+                             File dbFile,
+                             File fastaFile,
+                             int sequences,
+                             final DomainLibraryCache.Library library,
+                             final DomainHits hits) throws Exception {
+        // the FASTA file's size stands in for its number of residues
+        CoreBudget budget = CoreBudget.getInstance();
+        int threads = budget.acquire(CoreBudget.getWantedThreads(program, fastaFile.length(), budget.getCores()));
+        try {
+            searchShard(program, dbFile, fastaFile, sequences, threads, library, hits);
         }
         finally {
-            try { fastaFile.delete(); } catch (Exception ignore) {}
-            if (outFile != null)
-                try { outFile.delete(); } catch (Exception ignore) {}
+            budget.release(threads);
+        }
+    }
+
+    private void searchShard(String program,
+                             File dbFile,
+                             File fastaFile,
+                             int sequences,
+                             int threads,
+                             final DomainLibraryCache.Library library,
+                             final DomainHits hits) throws Exception {
+        if (program.equals(RPSBLAST_PROGRAM)) {		
+            runRpsBlast(dbFile, fastaFile, threads, new RpsBlastStreamParser.AlignmentCallback() {
+                @Override
+                public void next(int featurePos,
+                                 String subject,
+                                 int qstart,
+                                 int queryResidues,
+                                 int sstart,
+                                 int subjectResidues,
+                                 int alignedResidues,
+                                 double evalue,
+                                 double bitscore) throws Exception {
+                    int modelLength = library.getModelLength(subject);
+                    if (modelLength < 0)
+                        throw new IllegalStateException("Unexpected subject name in prs blast result: " + subject);
+                    int coverage = RpsBlastStreamParser.getCoveragePercent(modelLength, sstart, subjectResidues, alignedResidues);
+                    hits.add(featurePos, subject,
+                             qstart, qstart + queryResidues - 1,
+                             evalue, bitscore, coverage / 100.0);
+                }
+            });
+        }
+        else {
+            // hmmscan or hmmsearch, whichever should be faster for
+            // this many sequences against this library
+            HmmerEngineSelector selector = HmmerEngineSelector.getInstance();
+            int models = library.getModelCount();
+            String engine = selector.choose(sequences, models);
+            long startTime = System.currentTimeMillis();
+            runHmmer(engine, dbFile, fastaFile, threads, models, new DomTblOutParser.HmmerCallback() {
+                @Override
+                public void next(int featurePos,
+                                 String modelName,
+                                 int hmmFrom,
+                                 int hmmTo,
+                                 int start,
+                                 int stop,
+                                 double score,
+                                 double evalue) throws Exception {
+                    int modelLength = library.getModelLength(modelName);
+                    if (modelLength < 0)
+                        throw new IllegalStateException("No recognized domain in HMMER output: " + modelName);
+                    double coverage = (double)(hmmTo - hmmFrom + 1) / (double)modelLength;
+                    hits.add(featurePos, modelName,
+                             start, stop,
+                             evalue, score, coverage);
+                }
+            });
+            selector.record(engine, library.getLibrary().getId(), sequences, models, threads,
+                            System.currentTimeMillis() - startTime);
         }
     }
 
@@ -529,25 +842,94 @@ public class DomainSearchTask {
     }
 
     /**
-       gets all the required library files out of shock.  Only
-       supports publicly readable libraries for now (private libraries
-       cannot currently be uploaded)
+       Directory holding the files of one library under their own
+       names, as the search programs expect.  Its name depends on
+       the library's Shock nodes, so other versions of a library
+       never share it.
     */
-    public void prepareLibraryFiles(DomainLibrary dl) throws Exception {
-        TaskQueueConfig cfg = KBaseGeneFamiliesServer.getTaskConfig();
-        Map<String,String> props = cfg.getAllConfigProps();
-        String shockUrl = props.get(KBaseGeneFamiliesServer.CFG_PROP_SHOCK_SRV_URL);
+    private File getLibraryDir(DomainLibrary dl) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        for (Handle h : dl.getLibraryFiles())
+            md.update((h.getShockId() + "\u0000" + h.getFileName() + "\u0000").getBytes("UTF-8"));
+        StringBuilder name = new StringBuilder();
+        for (byte b : md.digest())
+            name.append(String.format("%02x", b & 0xff));
+        File ret = new File(new File(getDomainsDir(), "lib"), name.toString());
+        if (!ret.exists())
+            ret.mkdirs();
+        return ret;
+    }
+
+    private LibraryFileCache getLibraryFileCache() throws Exception {
+        int sizeMb = getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_LIBRARY_CACHE_SIZE_MB, 0);
+        RangedDownloader downloader = new RangedDownloader(getShockUrl(),
+                                                           null,
+                                                           getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_DOWNLOAD_THREAD_COUNT, 4),
+                                                           getIntConfigParam(KBaseGeneFamiliesServer.CFG_PROP_DOWNLOAD_RANGE_MB, 64) * 1024L * 1024L);
+        return new LibraryFileCache(new File(getDomainsDir(), "cache"), sizeMb * 1024L * 1024L, downloader);
+    }
+
+    private static String getShockUrl() throws Exception {
+        String shockUrl = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps().get(KBaseGeneFamiliesServer.CFG_PROP_SHOCK_SRV_URL);
         if (shockUrl==null)
             shockUrl = KBaseGeneFamiliesServer.defaultShockUrl;
-        BasicShockClient client = new BasicShockClient(new URL(shockUrl));
-        File dir = getDomainsDir();
-        for (Handle h : dl.getLibraryFiles()) {
-            File f = new File(dir.getPath()+"/"+h.getFileName());
-            if (f.canRead())
-                continue;
-            OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
-            client.getFile(new ShockNodeId(h.getShockId()),os);
-            os.close();
+        return shockUrl;
+    }
+
+    /**
+       gets all the required library files out of shock, through the
+       library file cache, and links them into the library's
+       directory.  Returns the cache entries used, which stay pinned
+       until released.  Only supports publicly readable libraries
+       for now (private libraries cannot currently be uploaded)
+    */
+    public List<File> prepareLibraryFiles(DomainLibrary dl) throws Exception {
+        final BasicShockClient client = new BasicShockClient(new URL(getShockUrl()));
+        final LibraryFileCache fileCache = getLibraryFileCache();
+        final File dir = getLibraryDir(dl);
+        final List<File> rv = Collections.synchronizedList(new ArrayList<File>());
+        // fetch all of the library's files at the same time
+        List<Callable<Object>> fetches = new ArrayList<Callable<Object>>();
+        for (final Handle h : dl.getLibraryFiles()) {
+            fetches.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        File entry = fileCache.getFile(client, h.getShockId());
+                        rv.add(entry);
+                        linkFile(entry, new File(dir, h.getFileName()));
+                        return null;
+                    }
+                });
+        }
+        try {
+            runConcurrently(fetches, fetches.size());
+        }
+        catch (Exception e) {
+            synchronized (rv) {
+                for (File f : rv)
+                    fileCache.release(f);
+            }
+            throw e;
+        }
+        return new ArrayList<File>(rv);
+    }
+
+    /**
+       Points a symbolic link at a file, replacing the link
+       atomically if it points anywhere else
+    */
+    private static void linkFile(File target, File link) throws IOException {
+        Path linkPath = link.toPath();
+        Path targetPath = target.getAbsoluteFile().toPath();
+        if (Files.isSymbolicLink(linkPath) && Files.readSymbolicLink(linkPath).equals(targetPath))
+            return;
+        Path tmp = new File(link.getParentFile(), link.getName() + "." + UUID.randomUUID() + ".tmp").toPath();
+        Files.createSymbolicLink(tmp, targetPath);
+        try {
+            Files.move(tmp, linkPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
         }
     }
 
@@ -562,6 +944,20 @@ public class DomainSearchTask {
     private File getHmmerBin() throws Exception {
         return BinPreparator.prepareBin(getBinDir(), "hmmscan");
     }
+
+    private File getHmmsearchBin() throws Exception {
+        return BinPreparator.prepareBin(getBinDir(), "hmmsearch");
+    }
+
+    /**
+       Makes sure the search program binaries are in place and
+       executable
+    */
+    public void prepareBins() throws Exception {
+        for (File bin : Arrays.asList(getRpsBlastBin(), getHmmerBin(), getHmmsearchBin()))
+            if (!bin.canExecute())
+                throw new IllegalStateException("Program "+bin+" is not executable");
+    }
     
     /**
        Formats a RPS-BLAST database, using the same parameters
@@ -615,106 +1011,150 @@ public class DomainSearchTask {
     }
 
     /**
-       Runs RPS-BLAST on a file
+       Runs RPS-BLAST on a file with a number of threads, passing
+       each hit to a callback as it's found
     */
-    public File runRpsBlast(File dbFile, File fastaQuery) throws Exception {
-        File tempOutputFile = File.createTempFile("rps", ".tab", tempDir);
-        CorrectProcess cp = null;
-        ByteArrayOutputStream errBaos = null;
-        Exception err = null;
+    public void runRpsBlast(File dbFile, File fastaQuery, int threads,
+                            final RpsBlastStreamParser.AlignmentCallback callback) throws Exception {
         String binPath = getRpsBlastBin().getAbsolutePath();
-        int procExitValue = -1;
-        FileOutputStream fos = new FileOutputStream(tempOutputFile);
-        try {
-            Process p = Runtime.getRuntime().exec(CorrectProcess.arr(binPath,
-                                                                     "-db", dbFile.getAbsolutePath(),
-                                                                     "-query", fastaQuery.getAbsolutePath(), 
-                                                                     "-outfmt", RpsBlastParser.OUTPUT_FORMAT_STRING, 
-                                                                     "-evalue", MAX_BLAST_EVALUE));
-            errBaos = new ByteArrayOutputStream();
-            cp = new CorrectProcess(p, fos, "", errBaos, "");
-            p.waitFor();
-            errBaos.close();
-            procExitValue = p.exitValue();
-        }
-        catch(Exception ex) {
-            try{ 
-                errBaos.close(); 
-            }
-            catch (Exception ignore) {}
-            try{ 
-                if(cp!=null) 
-                    cp.destroy(); 
-            }
-            catch (Exception ignore) {}
-            err = ex;
-        }
-        finally {
-            try { fos.close(); } catch (Exception ignore) {}
-        }
-        if (errBaos != null) {
-            String err_text = new String(errBaos.toByteArray());
-            if (err_text.length() > 0)
-                err = new Exception("RPS-BLAST: " + err_text, err);
-        }
-        if (procExitValue != 0) {
-            if (err == null)
-                err = new IllegalStateException("RPS-BLAST exit code: " + procExitValue);
-            throw err;
-        }
-        return tempOutputFile;
+        runProgram("RPS-BLAST",
+                   CorrectProcess.arr(binPath,
+                                      "-db", dbFile.getAbsolutePath(),
+                                      "-query", fastaQuery.getAbsolutePath(), 
+                                      "-outfmt", RpsBlastParser.OUTPUT_FORMAT_STRING, 
+                                      "-evalue", MAX_BLAST_EVALUE,
+                                      "-num_threads", String.valueOf(threads)),
+                   new OutputParser() {
+                       @Override
+                       public void parse(InputStream output) throws Exception {
+                           RpsBlastStreamParser.processRpsOutput(output, callback);
+                       }
+                   });
     }
 
     /**
-       Runs HMMER on a file
+       Runs hmmscan on a file with a number of worker threads, passing
+       each hit to a callback as it's found.  Only the per-domain table is read; the full report
+       (with alignments) isn't stored anywhere, so it's discarded.
     */
-    public File runHmmer(File dbFile, File fastaQuery) throws Exception {
-        File tempOutputFile = File.createTempFile("hmmer", ".txt", tempDir);
-        CorrectProcess cp = null;
-        ByteArrayOutputStream errBaos = null;
+    public void runHmmer(File dbFile, File fastaQuery, int threads,
+                         final DomTblOutParser.HmmerCallback callback) throws Exception {
+        runHmmer(HmmerEngineSelector.HMMSCAN, dbFile, fastaQuery, threads, 0, callback);
+    }
+
+    /**
+       Searcher of a library as recorded with its hits: the
+       program of an RPS-BLAST library, or the hmmer.engine setting
+       for an HMMER library, whose E-values depend on it
+    */
+    public static String getSearchEngine(DomainLibrary dl) throws Exception {
+        if (dl.getProgram().equals(HMMSCAN_PROGRAM))
+            return HmmerEngineSelector.getInstance().getEngine();
+        return dl.getProgram();
+    }
+
+    /**
+       Runs hmmscan or hmmsearch on a file with a number of worker
+       threads, passing each hit to the callback in the same form
+       either way.  hmmsearch reads the library's HMM file rather
+       than its pressed database.  It's told the library's number
+       of models as its sequence search space, as hmmscan uses, but
+       its domain E-values are only an approximation of hmmscan's:
+       hmmscan counts the models that pass for each sequence, where
+       --domZ 1 assumes it's always one.  Its bit scores, and so the
+       hits passing --cut_tc, are the same.
+    */
+    public void runHmmer(String engine, File dbFile, File fastaQuery, int threads, int models,
+                         final DomTblOutParser.HmmerCallback callback) throws Exception {
+        final boolean hmmsearch = engine.equals(HmmerEngineSelector.HMMSEARCH);
+        List<String> command = new ArrayList<String>();
+        command.add((hmmsearch ? getHmmsearchBin() : getHmmerBin()).getAbsolutePath());
+        command.addAll(Arrays.asList("--acc",
+                                     "--notextw",
+                                     "--cut_tc",
+                                     "--cpu", String.valueOf(threads),
+                                     "-o", "/dev/null",
+                                     "--domtblout", "/dev/stdout"));
+        if (hmmsearch)
+            command.addAll(Arrays.asList("-Z", String.valueOf(models),
+                                         "--domZ", "1"));
+        command.add(dbFile.getAbsolutePath());
+        command.add(fastaQuery.getAbsolutePath());
+        runProgram(hmmsearch ? "HMMSEARCH" : "HMMSCAN",
+                   command.toArray(new String[command.size()]),
+                   new OutputParser() {
+                       @Override
+                       public void parse(InputStream output) throws Exception {
+                           if (hmmsearch)
+                               DomTblOutParser.processHmmsearchDomTblOutput(output, callback);
+                           else
+                               DomTblOutParser.processDomTblOutput(output, callback);
+                       }
+                   });
+    }
+
+    /**
+       Reads the output of a program as it runs
+    */
+    public interface OutputParser {
+        public void parse(InputStream output) throws Exception;
+    }
+
+    /**
+       Runs a program, feeding its stdout straight into a parser
+       instead of saving it to a file first.  Stderr is collected
+       and reported if the program fails.
+    */
+    private void runProgram(String programName,
+                            String[] command,
+                            OutputParser parser) throws Exception {
+        Process p = Runtime.getRuntime().exec(command);
+        final InputStream errStream = p.getErrorStream();
+        final ByteArrayOutputStream errBaos = new ByteArrayOutputStream();
+        Thread errReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IOUtils.copy(errStream, errBaos);
+                    }
+                    catch (IOException ignore) {}
+                }
+            }, programName + "-stderr");
+        errReader.start();
         Exception err = null;
-        String binPath = getHmmerBin().getAbsolutePath();
-        int procExitValue = -1;
-        FileOutputStream fos = new FileOutputStream(tempOutputFile);
+        Integer exitValue = null;
+        InputStream output = p.getInputStream();
         try {
-            Process p = Runtime.getRuntime().exec(CorrectProcess.arr(binPath,
-                                                                     "--acc",
-                                                                     "--notextw",
-                                                                     "--cut_tc",
-                                                                     dbFile.getAbsolutePath(),
-                                                                     fastaQuery.getAbsolutePath()));
-            errBaos = new ByteArrayOutputStream();
-            cp = new CorrectProcess(p, fos, "", errBaos, "");
-            p.waitFor();
-            errBaos.close();
-            procExitValue = p.exitValue();
+            p.getOutputStream().close();
+            parser.parse(output);
+            exitValue = p.waitFor();
         }
-        catch(Exception ex) {
-            try{ 
-                errBaos.close(); 
-            }
-            catch (Exception ignore) {}
-            try{ 
-                if(cp!=null) 
-                    cp.destroy(); 
-            }
-            catch (Exception ignore) {}
+        catch (Exception ex) {
             err = ex;
         }
         finally {
-            try { fos.close(); } catch (Exception ignore) {}
-        }
-        if (errBaos != null) {
-            String err_text = new String(errBaos.toByteArray());
-            if (err_text.length() > 0)
-                err = new Exception("HMMSCAN: " + err_text, err);
+            if (exitValue == null)
+                p.destroy();
+            try { output.close(); } catch (Exception ignore) {}
+            // reap the process and collect all of its stderr, even
+            // when parsing failed, since that's where it says why
+            try {
+                p.waitFor();
+                errReader.join();
+            }
+            catch (InterruptedException ex) {
+                if (err == null)
+                    err = ex;
+            }
         }
-        if (procExitValue != 0) {
-            if (err == null)
-                err = new IllegalStateException("HMMSCAN exit code: " + procExitValue);
+        if (err == null && exitValue != 0)
+            err = new IllegalStateException(programName + " exit code: " + exitValue);
+        if (err != null) {
+            String errText = new String(errBaos.toByteArray());
+            if (errText.length() > 0)
+                throw new Exception(programName + ": " + errText, err);
             throw err;
         }
-        return tempOutputFile;
     }
     
     public void processRpsOutput(File results, RpsBlastParser.RpsBlastCallback callback) throws Exception {
@@ -0,0 +1,589 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import us.kbase.common.service.Tuple2;
+import us.kbase.common.service.Tuple4;
+import us.kbase.common.service.Tuple5;
+import us.kbase.kbasegenomes.Genome;
+
+/**
+   Layout of the features of one genome, as used in a
+   DomainAnnotation: features are grouped by contig and sorted by
+   start position.  Also keeps the proteins to be searched, named by
+   their (first) position in the genome, with their sequences
+   spooled off the heap.  This is built once per
+   genome, and shared by the searches of every library.
+
+   The layout is kept in primitive arrays: contig ids are interned
+   to ordinals, each laid out feature is an entry in parallel
+   arrays, and the entries of each contig are ordered by an index
+   sort on their starts.  Tuples are only made by toAnnotation().
+
+   Identical protein sequences (paralogs, isoforms, multi-copy
+   families) are searched only once: each distinct sequence is
+   named by the first position that has it, and hits found for it
+   are copied to the other positions by addCopies().
+*/
+public class FeatureLayout {
+    private final String genomeRef;
+    private final List<Integer> protPositions = new ArrayList<Integer>();
+    private final ProteinSpool spool;
+    private long totalResidues = 0;
+    private int maxPos = -1;
+    private int copyCount = 0;
+    private int featureCount = 0;
+    private int protCount = 0;
+
+    // contig ids, numbered in the order they're first seen
+    private final Map<String,Integer> contigOrdinals = new HashMap<String,Integer>();
+    private final List<String> contigIds = new ArrayList<String>();
+    // to work around genomes with missing contigs: contigs with proteins
+    private final BitSet realContigs = new BitSet();
+
+    // features with a contig and id, in the order added
+    private int entryCount = 0;
+    private String[] entryIds = new String[1024];
+    private int[] entryContigs = new int[1024];
+    private long[] entryStarts = new long[1024];
+    private long[] entryStops = new long[1024];
+    private boolean[] entryMinus = new boolean[1024];
+    // position in the genome of each entry with a protein, or -1
+    private int[] entryPositions = new int[1024];
+
+    // entry of each position with a protein, or -1
+    private int[] posEntries = new int[1024];
+
+    // next position with the same sequence, or -1; and the last
+    // position found so far for each distinct sequence
+    private int[] nextCopy = new int[1024];
+    private final List<Integer> lastCopy = new ArrayList<Integer>();
+
+    // made by finish(): the entries of each contig, in layout order;
+    // the index of each entry in its contig; the length of each
+    // contig, or -1 for contigs not sized; and contigs by id
+    private int[][] contigEntries;
+    private int[] entryIndices;
+    private long[] contigLengths;
+    private int[] contigsById;
+
+    public FeatureLayout(Genome genome, String genomeRef) throws IOException {
+        this(GenomeProjection.fromGenome(genome), genomeRef);
+    }
+
+    public FeatureLayout(GenomeProjection genome, String genomeRef) throws IOException {
+        this(genomeRef, null);
+        for (GenomeProjection.ProjectedFeature feat : genome.getFeatures()) {
+            if (feat.getLocation().size() < 1) {
+                addFeature(feat.getId(), null, 0, null, 0, null);
+                continue;
+            }
+            Tuple4<String, Long, String, Long> loc = feat.getLocation().get(0);
+            addFeature(feat.getId(), loc.getE1(), loc.getE2(), loc.getE3(), loc.getE4(), feat.getProteinTranslation());
+        }
+        finish(genome.getScientificName(), genome.getContigIds(), genome.getContigLengths());
+    }
+
+    /**
+       Starts an empty layout, to be filled by addFeature() and
+       completed by finish().  Protein sequences are spooled in the
+       directory given, or kept in memory if it's null.
+    */
+    public FeatureLayout(String genomeRef,
+                         File spoolDir) throws IOException {
+        this.genomeRef = genomeRef;
+        this.spool = new ProteinSpool(spoolDir);
+        Arrays.fill(nextCopy, -1);
+        Arrays.fill(posEntries, -1);
+    }
+
+    /**
+       Adds the next feature of the genome, from the first part of
+       its location.  A feature with no location (null contig) only
+       takes up its position.  The sequence, if any, goes to the
+       spool; nothing refers to it after this returns.
+    */
+    public void addFeature(String featId,
+                           String contigId,
+                           long locStart,
+                           String strand,
+                           long locLength,
+                           String seq) throws IOException {
+        int pos = featureCount++;
+        if (pos == nextCopy.length) {
+            nextCopy = Arrays.copyOf(nextCopy, pos * 2);
+            Arrays.fill(nextCopy, pos, nextCopy.length, -1);
+            posEntries = Arrays.copyOf(posEntries, pos * 2);
+            Arrays.fill(posEntries, pos, posEntries.length, -1);
+        }
+        if ((contigId==null) || (featId==null))
+            return;
+        Integer contig = contigOrdinals.get(contigId);
+        if (contig == null) {
+            contig = contigIds.size();
+            contigIds.add(contigId);
+            contigOrdinals.put(contigId, contig);
+        }
+        int entry = entryCount++;
+        if (entry == entryIds.length)
+            growEntries();
+        entryPositions[entry] = -1;
+        if (seq != null && !seq.isEmpty()) {
+            addProtein(pos, seq);
+            posEntries[pos] = entry;
+            entryPositions[entry] = pos;
+            protCount++;
+            realContigs.set(contig);
+        }
+        boolean minus = "-".equals(strand);
+        long start = minus ? (locStart - locLength + 1) : locStart;
+        // fake the stop site based on protein length
+        long stop;
+        if (seq != null)
+            stop = start - 1 + ((seq.length()+1) * 3);
+        else {
+            // correct calculation for end of 1st exon:
+            stop = minus ? locStart : (locStart + locLength - 1);
+        }
+        entryIds[entry] = featId;
+        entryContigs[entry] = contig;
+        entryStarts[entry] = start;
+        entryStops[entry] = stop;
+        entryMinus[entry] = minus;
+    }
+
+    /**
+       Completes the layout once every feature has been added
+    */
+    public void finish(String genomeName,
+                       List<String> genomeContigs,
+                       List<Long> genomeContigLengths) {
+        if (protCount == 0)
+            throw new IllegalStateException("There are no protein translations in genome " + genomeName + " (" + genomeRef + ")");
+        nextCopy = Arrays.copyOf(nextCopy, featureCount);
+        posEntries = Arrays.copyOf(posEntries, featureCount);
+        int contigCount = contigIds.size();
+
+        // group the entries by contig, in the order they were added
+        int[] counts = new int[contigCount];
+        for (int e = 0; e < entryCount; e++)
+            counts[entryContigs[e]]++;
+        contigEntries = new int[contigCount][];
+        for (int c = 0; c < contigCount; c++)
+            contigEntries[c] = new int[counts[c]];
+        Arrays.fill(counts, 0);
+        for (int e = 0; e < entryCount; e++) {
+            int c = entryContigs[e];
+            contigEntries[c][counts[c]++] = e;
+        }
+
+        // first, get the reported contigs from genome object
+        contigLengths = new long[contigCount];
+        Arrays.fill(contigLengths, -1L);
+        int nContigs = 0;
+        if (genomeContigs != null)
+            nContigs = genomeContigs.size();
+        for (int contigPos = 0; contigPos < nContigs; contigPos++) {
+            Integer contig = contigOrdinals.get(genomeContigs.get(contigPos));
+            if (contig == null)
+                continue;
+            long contigLength = 1;
+            if ((genomeContigLengths != null) &&
+                (genomeContigLengths.size() > contigPos))
+                contigLength = genomeContigLengths.get(contigPos).longValue();
+            contigLengths[contig] = contigLength;
+        }
+        // next, add any missing contigs as length 1
+        for (int c = realContigs.nextSetBit(0); c >= 0; c = realContigs.nextSetBit(c + 1))
+            if (contigLengths[c] < 0)
+                contigLengths[c] = 1;
+
+        // sort the features of each sized contig by start
+        entryIndices = new int[entryCount];
+        Arrays.fill(entryIndices, -1);
+        IndexOrder byStart = new IndexOrder() {
+                @Override
+                public int compare(int e1, int e2) {
+                    return Long.compare(entryStarts[e1], entryStarts[e2]);
+                }
+            };
+        for (int c = 0; c < contigCount; c++) {
+            if (contigLengths[c] < 0)
+                continue;
+            int[] entries = contigEntries[c];
+            sortIndices(entries, byStart);
+            for (int i = 0; i < entries.length; i++)
+                entryIndices[entries[i]] = i;
+        }
+
+        // annotations list contigs by id
+        contigsById = new int[contigCount];
+        for (int c = 0; c < contigCount; c++)
+            contigsById[c] = c;
+        sortIndices(contigsById, new IndexOrder() {
+                @Override
+                public int compare(int c1, int c2) {
+                    return contigIds.get(c1).compareTo(contigIds.get(c2));
+                }
+            });
+    }
+
+    /**
+       Order of two indices, for sortIndices()
+    */
+    private interface IndexOrder {
+        int compare(int i1, int i2);
+    }
+
+    /**
+       Stable merge sort of an array of indices
+    */
+    private static void sortIndices(int[] a, IndexOrder order) {
+        if (a.length < 2)
+            return;
+        int[] src = a;
+        int[] dst = new int[a.length];
+        for (int width = 1; width < a.length; width *= 2) {
+            for (int from = 0; from < a.length; from += 2 * width) {
+                int mid = Math.min(from + width, a.length);
+                int to = Math.min(from + 2 * width, a.length);
+                int i = from, j = mid, k = from;
+                while (i < mid && j < to)
+                    dst[k++] = order.compare(src[j], src[i]) < 0 ? src[j++] : src[i++];
+                while (i < mid)
+                    dst[k++] = src[i++];
+                while (j < to)
+                    dst[k++] = src[j++];
+            }
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        if (src != a)
+            System.arraycopy(src, 0, a, 0, a.length);
+    }
+
+    /**
+       Entries with a protein, ordered by feature id.  Of several
+       entries with the same id, only the last added is kept, as a
+       map from id would.
+    */
+    private int[] getEntriesById() {
+        int[] rv = new int[protCount];
+        int n = 0;
+        for (int e = 0; e < entryCount; e++)
+            if (entryPositions[e] >= 0)
+                rv[n++] = e;
+        sortIndices(rv, new IndexOrder() {
+                @Override
+                public int compare(int e1, int e2) {
+                    return entryIds[e1].compareTo(entryIds[e2]);
+                }
+            });
+        n = 0;
+        for (int i = 0; i < rv.length; i++)
+            if (i + 1 == rv.length || !entryIds[rv[i]].equals(entryIds[rv[i + 1]]))
+                rv[n++] = rv[i];
+        return Arrays.copyOf(rv, n);
+    }
+
+    private void growEntries() {
+        int newLength = entryIds.length * 2;
+        entryIds = Arrays.copyOf(entryIds, newLength);
+        entryContigs = Arrays.copyOf(entryContigs, newLength);
+        entryStarts = Arrays.copyOf(entryStarts, newLength);
+        entryStops = Arrays.copyOf(entryStops, newLength);
+        entryMinus = Arrays.copyOf(entryMinus, newLength);
+        entryPositions = Arrays.copyOf(entryPositions, newLength);
+    }
+
+    /**
+       Adds a protein to be searched, unless the same sequence is
+       already there, in which case the position is chained to it
+    */
+    private void addProtein(int pos, String seq) throws IOException {
+        maxPos = pos;
+        int index = spool.add(seq);
+        if (index < 0) {
+            index = -index - 1;
+            nextCopy[lastCopy.get(index)] = pos;
+            lastCopy.set(index, pos);
+            copyCount++;
+            return;
+        }
+        protPositions.add(pos);
+        lastCopy.add(pos);
+        totalResidues += seq.length();
+    }
+
+    public String getGenomeRef() {
+        return genomeRef;
+    }
+
+    /**
+       Positions in the genome of the distinct proteins to search;
+       each is the first position with that sequence
+    */
+    public List<Integer> getProteinPositions() {
+        return protPositions;
+    }
+
+    /**
+       Distinct sequences of the proteins to search, in the same
+       order as getProteinPositions(), read back from the spool
+    */
+    public List<String> getProteinSequences() throws IOException {
+        List<String> rv = new ArrayList<String>();
+        for (int i = 0; i < spool.getCount(); i++)
+            rv.add(spool.getSequence(i));
+        return rv;
+    }
+
+    /**
+       Spool of the distinct sequences, in the same order as
+       getProteinPositions()
+    */
+    public ProteinSpool getProteinSpool() {
+        return spool;
+    }
+
+    /**
+       Removes the spooled sequences; the layout can still write
+       annotations, but its proteins can't be searched any more
+    */
+    public void close() throws IOException {
+        spool.close();
+    }
+
+    /**
+       Total length of the distinct sequences to search
+    */
+    public long getTotalResidues() {
+        return totalResidues;
+    }
+
+    /**
+       Number of features in the genome; every position is less
+       than this
+    */
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+       Number of proteins that weren't searched because their
+       sequence is the same as an earlier one
+    */
+    public int getCopyCount() {
+        return copyCount;
+    }
+
+    /**
+       Returns the hits found for the distinct sequences, with each
+       hit also given to every other position with the same sequence
+    */
+    public DomainHits addCopies(DomainHits hits) {
+        if (copyCount == 0)
+            return hits;
+        DomainHits rv = new DomainHits();
+        for (int i = 0; i < hits.size(); i++) {
+            String modelName = hits.getModelName(hits.getModel(i));
+            for (int pos = hits.getFeature(i); pos >= 0; pos = nextCopy[pos])
+                rv.add(pos,
+                       modelName,
+                       hits.getStart(i),
+                       hits.getStop(i),
+                       hits.getEvalue(i),
+                       hits.getBitscore(i),
+                       hits.getCoverage(i));
+        }
+        return rv;
+    }
+
+    /**
+       Builds the annotation object holding a set of hits, making
+       the tuples of its features from the layout
+    */
+    public DomainAnnotation toAnnotation(String domainModelSetRef,
+                                         DomainHits hits) {
+        Map<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>> contig2prots =
+            new LinkedHashMap<String, List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>>();
+        Map<String, Tuple2<Long, Long>> contigSizes = new LinkedHashMap<String, Tuple2<Long, Long>>();
+        @SuppressWarnings("unchecked")
+            Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>[] entryTuples = new Tuple5[entryCount];
+        for (int c : contigsById) {
+            List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> prots =
+                new ArrayList<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>>();
+            for (int e : contigEntries[c]) {
+                entryTuples[e] = new Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>()
+                    .withE1(entryIds[e])
+                    .withE2(entryStarts[e])
+                    .withE3(entryStops[e])
+                    .withE4(entryMinus[e] ? -1L : 1L)
+                    .withE5(new TreeMap<String, List<Tuple5<Long, Long, Double, Double, Double>>>());
+                prots.add(entryTuples[e]);
+            }
+            contig2prots.put(contigIds.get(c), prots);
+            if (contigLengths[c] >= 0)
+                contigSizes.put(contigIds.get(c), new Tuple2<Long, Long>().withE1(contigLengths[c]).withE2((long)prots.size()));
+        }
+        Map<String, Tuple2<String, Long>> featIdToContigFeatIndex = new LinkedHashMap<String, Tuple2<String, Long>>();
+        for (int e : getEntriesById())
+            featIdToContigFeatIndex.put(entryIds[e], new Tuple2<String, Long>()
+                                        .withE1(contigIds.get(entryContigs[e]))
+                                        .withE2((long)entryIndices[e]));
+        for (int i = 0; i < hits.size(); i++) {
+            Map<String, List<Tuple5<Long, Long, Double, Double, Double>>> domains = entryTuples[posEntries[hits.getFeature(i)]].getE5();
+            String modelName = hits.getModelName(hits.getModel(i));
+            List<Tuple5<Long, Long, Double, Double, Double>> places = domains.get(modelName);
+            if (places == null) {
+                places = new ArrayList<Tuple5<Long, Long, Double, Double, Double>>();
+                domains.put(modelName, places);
+            }
+            places.add(new Tuple5<Long, Long, Double, Double, Double>()
+                       .withE1((long)hits.getStart(i))
+                       .withE2((long)hits.getStop(i))
+                       .withE3(hits.getEvalue(i))
+                       .withE4(hits.getBitscore(i))
+                       .withE5(hits.getCoverage(i)));
+        }
+        return new DomainAnnotation()
+            .withGenomeRef(genomeRef)
+            .withUsedDmsRef(domainModelSetRef)
+            .withData(contig2prots)
+            .withContigToSizeAndFeatureCount(contigSizes)
+            .withFeatureToContigAndIndex(featIdToContigFeatIndex);
+    }
+
+    /**
+       Writes the annotation holding a set of hits as JSON, in the
+       same form as toAnnotation() would serialize to, without
+       building the per-hit tuples.  Returns the metadata of the
+       annotation, as DomainSearchTask.getMetadata() would give,
+       which the hits kept count of as they were found.
+    */
+    public Map<String,String> writeAnnotation(JsonGenerator jgen,
+                                              String domainModelSetRef,
+                                              DomainHits hits) throws IOException {
+        // chain the hits of each feature, keeping the order in
+        // which they were found
+        int hitCount = hits.size();
+        int[] firstHit = new int[maxPos + 1];
+        int[] lastHit = new int[maxPos + 1];
+        Arrays.fill(firstHit, -1);
+        int[] nextHit = new int[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            int pos = hits.getFeature(i);
+            nextHit[i] = -1;
+            if (firstHit[pos] < 0)
+                firstHit[pos] = i;
+            else
+                nextHit[lastHit[pos]] = i;
+            lastHit[pos] = i;
+        }
+
+        // rank the models by name, as they're keyed in the annotation
+        int modelCount = hits.getModelCount();
+        Integer[] byName = new Integer[modelCount];
+        for (int i = 0; i < modelCount; i++)
+            byName[i] = i;
+        final DomainHits h = hits;
+        Arrays.sort(byName, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return h.getModelName(o1).compareTo(h.getModelName(o2));
+                }
+            });
+        int[] modelRank = new int[modelCount];
+        for (int i = 0; i < modelCount; i++)
+            modelRank[byName[i]] = i;
+
+        int[] featureModels = new int[modelCount];
+
+        jgen.writeStartObject();
+        jgen.writeStringField("genome_ref", genomeRef);
+        if (domainModelSetRef != null)
+            jgen.writeStringField("used_dms_ref", domainModelSetRef);
+        jgen.writeObjectFieldStart("data");
+        for (int c : contigsById) {
+            jgen.writeArrayFieldStart(contigIds.get(c));
+            for (int e : contigEntries[c]) {
+                jgen.writeStartArray();
+                jgen.writeString(entryIds[e]);
+                jgen.writeNumber(entryStarts[e]);
+                jgen.writeNumber(entryStops[e]);
+                jgen.writeNumber(entryMinus[e] ? -1L : 1L);
+                jgen.writeStartObject();
+                int pos = entryPositions[e];
+                if (pos >= 0 && firstHit[pos] >= 0) {
+                    // the distinct models hit in this feature, by name
+                    int nModels = 0;
+                    for (int hit = firstHit[pos]; hit >= 0; hit = nextHit[hit]) {
+                        int model = hits.getModel(hit);
+                        int j = 0;
+                        while (j < nModels && featureModels[j] != model)
+                            j++;
+                        if (j == nModels)
+                            featureModels[nModels++] = model;
+                    }
+                    for (int j = 1; j < nModels; j++) {
+                        int model = featureModels[j];
+                        int k = j - 1;
+                        while (k >= 0 && modelRank[featureModels[k]] > modelRank[model]) {
+                            featureModels[k + 1] = featureModels[k];
+                            k--;
+                        }
+                        featureModels[k + 1] = model;
+                    }
+                    for (int j = 0; j < nModels; j++) {
+                        int model = featureModels[j];
+                        jgen.writeArrayFieldStart(hits.getModelName(model));
+                        for (int hit = firstHit[pos]; hit >= 0; hit = nextHit[hit]) {
+                            if (hits.getModel(hit) != model)
+                                continue;
+                            jgen.writeStartArray();
+                            jgen.writeNumber((long)hits.getStart(hit));
+                            jgen.writeNumber((long)hits.getStop(hit));
+                            jgen.writeNumber(hits.getEvalue(hit));
+                            jgen.writeNumber(hits.getBitscore(hit));
+                            jgen.writeNumber(hits.getCoverage(hit));
+                            jgen.writeEndArray();
+                        }
+                        jgen.writeEndArray();
+                    }
+                }
+                jgen.writeEndObject();
+                jgen.writeEndArray();
+            }
+            jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+
+        jgen.writeObjectFieldStart("contig_to_size_and_feature_count");
+        for (int c : contigsById) {
+            if (contigLengths[c] < 0)
+                continue;
+            jgen.writeArrayFieldStart(contigIds.get(c));
+            jgen.writeNumber(contigLengths[c]);
+            jgen.writeNumber((long)contigEntries[c].length);
+            jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+
+        jgen.writeObjectFieldStart("feature_to_contig_and_index");
+        for (int e : getEntriesById()) {
+            jgen.writeArrayFieldStart(entryIds[e]);
+            jgen.writeString(contigIds.get(entryContigs[e]));
+            jgen.writeNumber((long)entryIndices[e]);
+            jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+        jgen.writeEndObject();
+
+        return hits.getStatistics().getMetadata();
+    }
+}
@@ -0,0 +1,175 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import us.kbase.common.service.Tuple4;
+import us.kbase.kbasegenomes.Feature;
+import us.kbase.kbasegenomes.Genome;
+
+/**
+   The fields of a KBaseGenomes.Genome that a domain search uses,
+   and nothing else.  Genomes are fetched as a subset with only
+   these paths included, which leaves out the large DNA-related
+   fields of assembled eukaryotes.
+*/
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GenomeProjection {
+    /**
+       Paths of the genome fields to fetch
+    */
+    public static final List<String> INCLUDED_PATHS = Collections.unmodifiableList(Arrays.asList("scientific_name",
+                                                                                                 "contig_ids",
+                                                                                                 "contig_lengths",
+                                                                                                 "features/[*]/id",
+                                                                                                 "features/[*]/location",
+                                                                                                 "features/[*]/protein_translation"));
+
+    /**
+       The fields of a feature that a domain search uses
+    */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ProjectedFeature {
+        @JsonProperty("id")
+        private String id;
+        @JsonProperty("location")
+        private List<Tuple4<String, Long, String, Long>> location;
+        @JsonProperty("protein_translation")
+        private String proteinTranslation;
+
+        @JsonProperty("id")
+        public String getId() {
+            return id;
+        }
+
+        @JsonProperty("id")
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public ProjectedFeature withId(String id) {
+            this.id = id;
+            return this;
+        }
+
+        @JsonProperty("location")
+        public List<Tuple4<String, Long, String, Long>> getLocation() {
+            return location;
+        }
+
+        @JsonProperty("location")
+        public void setLocation(List<Tuple4<String, Long, String, Long>> location) {
+            this.location = location;
+        }
+
+        public ProjectedFeature withLocation(List<Tuple4<String, Long, String, Long>> location) {
+            this.location = location;
+            return this;
+        }
+
+        @JsonProperty("protein_translation")
+        public String getProteinTranslation() {
+            return proteinTranslation;
+        }
+
+        @JsonProperty("protein_translation")
+        public void setProteinTranslation(String proteinTranslation) {
+            this.proteinTranslation = proteinTranslation;
+        }
+
+        public ProjectedFeature withProteinTranslation(String proteinTranslation) {
+            this.proteinTranslation = proteinTranslation;
+            return this;
+        }
+    }
+
+    @JsonProperty("scientific_name")
+    private String scientificName;
+    @JsonProperty("contig_ids")
+    private List<String> contigIds;
+    @JsonProperty("contig_lengths")
+    private List<Long> contigLengths;
+    @JsonProperty("features")
+    private List<ProjectedFeature> features;
+
+    /**
+       Projects a whole genome already in memory
+    */
+    public static GenomeProjection fromGenome(Genome genome) {
+        List<ProjectedFeature> features = new ArrayList<ProjectedFeature>();
+        if (genome.getFeatures() != null) {
+            for (Feature feat : genome.getFeatures())
+                features.add(new ProjectedFeature()
+                             .withId(feat.getId())
+                             .withLocation(feat.getLocation())
+                             .withProteinTranslation(feat.getProteinTranslation()));
+        }
+        return new GenomeProjection()
+            .withScientificName(genome.getScientificName())
+            .withContigIds(genome.getContigIds())
+            .withContigLengths(genome.getContigLengths())
+            .withFeatures(features);
+    }
+
+    @JsonProperty("scientific_name")
+    public String getScientificName() {
+        return scientificName;
+    }
+
+    @JsonProperty("scientific_name")
+    public void setScientificName(String scientificName) {
+        this.scientificName = scientificName;
+    }
+
+    public GenomeProjection withScientificName(String scientificName) {
+        this.scientificName = scientificName;
+        return this;
+    }
+
+    @JsonProperty("contig_ids")
+    public List<String> getContigIds() {
+        return contigIds;
+    }
+
+    @JsonProperty("contig_ids")
+    public void setContigIds(List<String> contigIds) {
+        this.contigIds = contigIds;
+    }
+
+    public GenomeProjection withContigIds(List<String> contigIds) {
+        this.contigIds = contigIds;
+        return this;
+    }
+
+    @JsonProperty("contig_lengths")
+    public List<Long> getContigLengths() {
+        return contigLengths;
+    }
+
+    @JsonProperty("contig_lengths")
+    public void setContigLengths(List<Long> contigLengths) {
+        this.contigLengths = contigLengths;
+    }
+
+    public GenomeProjection withContigLengths(List<Long> contigLengths) {
+        this.contigLengths = contigLengths;
+        return this;
+    }
+
+    @JsonProperty("features")
+    public List<ProjectedFeature> getFeatures() {
+        return features;
+    }
+
+    @JsonProperty("features")
+    public void setFeatures(List<ProjectedFeature> features) {
+        this.features = features;
+    }
+
+    public GenomeProjection withFeatures(List<ProjectedFeature> features) {
+        this.features = features;
+        return this;
+    }
+}
@@ -0,0 +1,150 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+
+/**
+   Statistics of the domain hits found in one genome, kept up to
+   date as each hit is added to its DomainHits store, so the
+   metadata of an annotation never needs another pass over its data.
+   Annotated features and models are kept as bitsets over their
+   ordinals; evalues and coverages are counted in histograms.
+
+   Evalue bucket i holds hits with 1e-(i+1) < evalue <= 1e-i; the
+   first bucket also holds evalues above 1, and the last holds
+   every evalue of 1e-(EVALUE_BUCKETS-1) or less.  Coverage bucket i
+   holds coverages from i/10 up to (i+1)/10, with a full coverage in
+   the last bucket.
+*/
+public class HitStatistics {
+    public static final int EVALUE_BUCKETS = 21;
+    public static final int COVERAGE_BUCKETS = 10;
+
+    private final BitSet features = new BitSet();
+    private final BitSet models = new BitSet();
+    private long hitCount = 0;
+    private final long[] evalueCounts = new long[EVALUE_BUCKETS];
+    private final long[] coverageCounts = new long[COVERAGE_BUCKETS];
+    private final Map<String,Long> libraryHits = new TreeMap<String,Long>();
+    private final Map<String,String> libraryEngines = new TreeMap<String,String>();
+
+    /**
+       Counts a hit of a model, by ordinal, in the feature at a
+       given position
+    */
+    public void add(int feature,
+                    int model,
+                    double evalue,
+                    double coverage) {
+        features.set(feature);
+        models.set(model);
+        hitCount++;
+        evalueCounts[getEvalueBucket(evalue)]++;
+        coverageCounts[getCoverageBucket(coverage)]++;
+    }
+
+    /**
+       Records how many of the hits came from a library
+    */
+    public void setLibraryHits(String library,
+                               long hits) {
+        libraryHits.put(library, hits);
+    }
+
+    /**
+       Records which engine searched a library, as given by
+       DomainSearchTask.getSearchEngine()
+    */
+    public void setLibraryEngine(String library,
+                                 String engine) {
+        libraryEngines.put(library, engine);
+    }
+
+    public int getAnnotatedFeatureCount() {
+        return features.cardinality();
+    }
+
+    public int getModelCount() {
+        return models.cardinality();
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long[] getEvalueHistogram() {
+        return evalueCounts.clone();
+    }
+
+    public long[] getCoverageHistogram() {
+        return coverageCounts.clone();
+    }
+
+    public Map<String,Long> getLibraryHits() {
+        return Collections.unmodifiableMap(libraryHits);
+    }
+
+    public Map<String,String> getLibraryEngines() {
+        return Collections.unmodifiableMap(libraryEngines);
+    }
+
+    /**
+       Workspace metadata of the annotation, as
+       DomainSearchTask.getMetadata() gives for a built annotation
+    */
+    public Map<String,String> getMetadata() {
+        Map<String,String> rv = new HashMap<String,String>();
+        // the keys are swapped, as they always have been
+        rv.put("annotated_domains", "" + getAnnotatedFeatureCount());
+        rv.put("annotated_features", "" + getModelCount());
+        return rv;
+    }
+
+    /**
+       Fuller statistics, to save with the annotation's metadata:
+       the hit count, hits and search engine by library, and the
+       histograms, each as a comma-separated list of counts
+    */
+    public Map<String,String> getSummary() {
+        Map<String,String> rv = new LinkedHashMap<String,String>();
+        rv.put("domain_hits", "" + hitCount);
+        if (!libraryHits.isEmpty())
+            rv.put("library_hits", join(libraryHits));
+        if (!libraryEngines.isEmpty())
+            rv.put("search_engines", join(libraryEngines));
+        rv.put("evalue_histogram", join(evalueCounts));
+        rv.put("coverage_histogram", join(coverageCounts));
+        return rv;
+    }
+
+    static int getEvalueBucket(double evalue) {
+        if (!(evalue > 0.0))
+            return EVALUE_BUCKETS - 1;
+        double decades = Math.floor(-Math.log10(evalue));
+        return (int)Math.max(0, Math.min(EVALUE_BUCKETS - 1, decades));
+    }
+
+    static int getCoverageBucket(double coverage) {
+        int rv = (int)Math.floor(coverage * COVERAGE_BUCKETS);
+        return Math.max(0, Math.min(COVERAGE_BUCKETS - 1, rv));
+    }
+
+    private static String join(Map<String,?> byLibrary) {
+        StringBuilder rv = new StringBuilder();
+        for (Map.Entry<String,?> entry : byLibrary.entrySet()) {
+            if (rv.length() > 0)
+                rv.append(',');
+            rv.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return rv.toString();
+    }
+
+    private static String join(long[] counts) {
+        StringBuilder rv = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0)
+                rv.append(',');
+            rv.append(counts[i]);
+        }
+        return rv.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+
+/**
+   Chooses which HMMER program searches a set of proteins against an
+   HMM library.  hmmscan runs each sequence against every model,
+   reading the whole pressed database once per sequence; hmmsearch
+   runs each model against every sequence, reading the sequences
+   once per model.  With many sequences the sequence file stays in
+   cache while hmmscan keeps streaming the database, so hmmsearch is
+   chosen once a search has at least a minimum number of sequences
+   and at least a given number of sequences per model.  Both find
+   the same domains with --cut_tc, which thresholds on bit scores,
+   but hmmsearch's E-values are only an approximation of hmmscan's
+   (see DomainSearchTask.runHmmer()), and with auto they depend on
+   how the proteins were split into shards.  So hmmscan is the
+   default; auto and hmmsearch trade exact E-values for speed, and
+   the setting is recorded with each annotation.
+
+   The time taken by every run is recorded with its choice, and
+   logged, so the thresholds can be tuned from real runs.
+*/
+public class HmmerEngineSelector {
+    public static final String AUTO = "auto";
+    public static final String HMMSCAN = "hmmscan";
+    public static final String HMMSEARCH = "hmmsearch";
+
+    public static final int DEFAULT_MIN_SEQUENCES = 5000;
+    public static final double DEFAULT_SEQUENCES_PER_MODEL = 1.0;
+
+    private static HmmerEngineSelector instance = null;
+
+    private final String engine;
+    private final int minSequences;
+    private final double sequencesPerModel;
+    // runs, milliseconds, sequences, sequence-model comparisons
+    private final Map<String, long[]> timings = new TreeMap<String, long[]>();
+
+    /**
+       Makes a selector that always uses engine, unless it's auto;
+       then hmmsearch is used for searches of at least minSequences
+       sequences and sequencesPerModel sequences per model
+    */
+    public HmmerEngineSelector(String engine,
+                               int minSequences,
+                               double sequencesPerModel) {
+        if (!engine.equals(AUTO) && !engine.equals(HMMSCAN) && !engine.equals(HMMSEARCH))
+            throw new IllegalArgumentException("Unknown HMMER engine: "+engine);
+        this.engine = engine;
+        this.minSequences = minSequences;
+        this.sequencesPerModel = sequencesPerModel;
+    }
+
+    /**
+       The selector shared by the whole service; it's set by
+       hmmer.engine, hmmsearch.min.sequences and
+       hmmsearch.sequences.per.model
+    */
+    public static synchronized HmmerEngineSelector getInstance() throws Exception {
+        if (instance == null) {
+            Map<String,String> props = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps();
+            String engine = props.get(KBaseGeneFamiliesServer.CFG_PROP_HMMER_ENGINE);
+            String minSequences = props.get(KBaseGeneFamiliesServer.CFG_PROP_HMMSEARCH_MIN_SEQUENCES);
+            String sequencesPerModel = props.get(KBaseGeneFamiliesServer.CFG_PROP_HMMSEARCH_SEQUENCES_PER_MODEL);
+            instance = new HmmerEngineSelector(isEmpty(engine) ? HMMSCAN : engine.trim(),
+                                               isEmpty(minSequences) ? DEFAULT_MIN_SEQUENCES : Integer.parseInt(minSequences.trim()),
+                                               isEmpty(sequencesPerModel) ? DEFAULT_SEQUENCES_PER_MODEL : Double.parseDouble(sequencesPerModel.trim()));
+        }
+        return instance;
+    }
+
+    /**
+       The configured engine: hmmscan, hmmsearch or auto
+    */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+       Program to search a number of sequences against a library
+       of a number of models with
+    */
+    public String choose(int sequences,
+                         int models) {
+        if (!engine.equals(AUTO))
+            return engine;
+        if (sequences >= minSequences && sequences >= sequencesPerModel * models)
+            return HMMSEARCH;
+        return HMMSCAN;
+    }
+
+    /**
+       Records how long a run of a program took, and logs it
+    */
+    public synchronized void record(String program,
+                                    String library,
+                                    int sequences,
+                                    int models,
+                                    int threads,
+                                    long millis) {
+        long[] timing = timings.get(program);
+        if (timing == null) {
+            timing = new long[4];
+            timings.put(program, timing);
+        }
+        timing[0]++;
+        timing[1] += millis;
+        timing[2] += sequences;
+        timing[3] += (long)sequences * models;
+        System.out.println("HMMER engine "+program+" searched "+sequences+" sequences against "+
+                           models+" models of library "+library+" with "+threads+" threads in "+
+                           millis+" ms; "+program+" total "+timing[1]+" ms for "+timing[0]+" runs, "+
+                           getMicrosPerMillion(timing)+" us per million comparisons");
+    }
+
+    public synchronized long getRunCount(String program) {
+        long[] timing = timings.get(program);
+        return timing == null ? 0 : timing[0];
+    }
+
+    public synchronized long getMillis(String program) {
+        long[] timing = timings.get(program);
+        return timing == null ? 0 : timing[1];
+    }
+
+    public synchronized long getSequences(String program) {
+        long[] timing = timings.get(program);
+        return timing == null ? 0 : timing[2];
+    }
+
+    /**
+       Sequence-model pairs searched by a program so far
+    */
+    public synchronized long getComparisons(String program) {
+        long[] timing = timings.get(program);
+        return timing == null ? 0 : timing[3];
+    }
+
+    private static long getMicrosPerMillion(long[] timing) {
+        if (timing[3] == 0)
+            return 0;
+        return (long)(timing[1] * 1000.0 * 1000000.0 / timing[3]);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
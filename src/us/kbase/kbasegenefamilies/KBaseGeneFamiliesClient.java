@@ -138,6 +138,43 @@ public class KBaseGeneFamiliesClient {
         return res.get(0);
     }
 
+    /**
+     * <p>Original spec-file function name: search_domains_many</p>
+     * <pre>
+     * Searches domains in a batch of genomes in one job, saving one
+     * DomainAnnotation per genome.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.kbasegenefamilies.SearchDomainsManyParams SearchDomainsManyParams}
+     * @return   parameter "job_id" of String
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public String searchDomainsMany(SearchDomainsManyParams params) throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        args.add(params);
+        TypeReference<List<String>> retType = new TypeReference<List<String>>() {};
+        List<String> res = caller.jsonrpcCall("KBaseGeneFamilies.search_domains_many", args, retType, true, true);
+        return res.get(0);
+    }
+
+    /**
+     * <p>Original spec-file function name: warm_up_status</p>
+     * <pre>
+     * Reports the progress of the library warm-up started with the
+     * service, which fetches the configured domain libraries ahead
+     * of the first jobs.
+     * </pre>
+     * @return   parameter "status" of type {@link us.kbase.kbasegenefamilies.WarmUpStatus WarmUpStatus}
+     * @throws IOException if an IO exception occurs
+     * @throws JsonClientException if a JSON RPC exception occurs
+     */
+    public WarmUpStatus warmUpStatus() throws IOException, JsonClientException {
+        List<Object> args = new ArrayList<Object>();
+        TypeReference<List<WarmUpStatus>> retType = new TypeReference<List<WarmUpStatus>>() {};
+        List<WarmUpStatus> res = caller.jsonrpcCall("KBaseGeneFamilies.warm_up_status", args, retType, true, false);
+        return res.get(0);
+    }
+
     /**
      * <p>Original spec-file function name: version</p>
      * <pre>
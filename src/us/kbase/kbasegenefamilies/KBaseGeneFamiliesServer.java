@@ -37,6 +37,15 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
     //BEGIN_CLASS_HEADER
     private static TaskQueue taskHolder = null;
     private static TaskQueueConfig taskConfig = null;
+
+    static {
+	// before the servlet or any client makes an HTTP connection
+	try {
+	    PooledObjectStorage.keepAliveConnections(loadConfig());
+	} catch (Exception ex) {
+	    System.err.println(KBaseGeneFamiliesServer.class.getName() + ": Can't read workspace.max.connections: " + ex.getMessage());
+	}
+    }
     
     public static final String defaultWsUrl = "https://kbase.us/services/ws/";
     public static final String defaultGfUrl = "https://kbase.us/services/gene-families/";
@@ -46,6 +55,26 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
     public static final String SYS_PROP_KB_DEPLOYMENT_CONFIG = "KB_DEPLOYMENT_CONFIG";
     
     public static final String CFG_PROP_THREAD_COUNT = "thread.count";
+    public static final String CFG_PROP_CORE_COUNT = "core.count";
+    public static final String CFG_PROP_MEMORY_BUDGET_MB = "memory.budget.mb";
+    public static final String CFG_PROP_MEMORY_BACKFILL_SECONDS = "memory.backfill.seconds";
+    public static final String CFG_PROP_LIBRARY_THREAD_COUNT = "library.thread.count";
+    public static final String CFG_PROP_SHARD_COUNT = "shard.count";
+    public static final String CFG_PROP_SHARD_MIN_RESIDUES = "shard.min.residues";
+    public static final String CFG_PROP_RESULT_CACHE_DIR = "result.cache.dir";
+    public static final String CFG_PROP_RESULT_CACHE_SIZE_MB = "result.cache.size.mb";
+    public static final String CFG_PROP_LIBRARY_CACHE_SIZE_MB = "library.cache.size.mb";
+    public static final String CFG_PROP_DOWNLOAD_THREAD_COUNT = "download.thread.count";
+    public static final String CFG_PROP_DOWNLOAD_RANGE_MB = "download.range.mb";
+    public static final String CFG_PROP_HMMER_ENGINE = "hmmer.engine";
+    public static final String CFG_PROP_HMMSEARCH_MIN_SEQUENCES = "hmmsearch.min.sequences";
+    public static final String CFG_PROP_HMMSEARCH_SEQUENCES_PER_MODEL = "hmmsearch.sequences.per.model";
+    public static final String CFG_PROP_WARMUP_DMS_REFS = "warmup.dms.refs";
+    public static final String CFG_PROP_WARMUP_TOKEN = "warmup.token";
+    public static final String CFG_PROP_WS_MAX_CONNECTIONS = "workspace.max.connections";
+    public static final String CFG_PROP_WS_CLIENT_EXPIRY_SECONDS = "workspace.client.expiry.seconds";
+    public static final String CFG_PROP_WS_CONNECT_TIMEOUT_SECONDS = "workspace.connect.timeout.seconds";
+    public static final String CFG_PROP_WS_READ_TIMEOUT_SECONDS = "workspace.read.timeout.seconds";
     public static final String CFG_PROP_QUEUE_DB_DIR = "queue.db.dir";
     public static final String CFG_PROP_WS_SRV_URL = "workspace.srv.url";
     public static final String CFG_PROP_GF_SRV_URL = "genefamilies.srv.url";
@@ -108,7 +137,7 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
     public static synchronized TaskQueue getTaskQueue() throws Exception {
     	if (taskHolder == null) {
 	    TaskQueueConfig cfg = getTaskConfig();
-	    taskHolder = new TaskQueue(cfg, new SearchDomainsBuilder()); // , new ConstructDomainClustersBuilder(), new SearchDomainsAndConstructClustersBuilder());
+	    taskHolder = new TaskQueue(cfg, new SearchDomainsBuilder(), new SearchDomainsManyBuilder()); // , new ConstructDomainClustersBuilder(), new SearchDomainsAndConstructClustersBuilder());
 	    System.out.println("Initial queue size: " + TaskQueue.getDbConnection(cfg.getQueueDbDir()).collect("select count(*) from " + TaskQueue.QUEUE_TABLE_NAME, new us.kbase.common.utils.DbConn.SqlLoader<Integer>() {
 			public Integer collectRow(java.sql.ResultSet rs) throws java.sql.SQLException { return rs.getInt(1); }
 		    }));
@@ -124,6 +153,26 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
 	return new Ini(new File(configPath)).get(SERVICE_DEPLOYMENT_NAME);
     }
     
+    /**
+       Starts fetching the libraries of the configured DomainModelSets
+       in the background, so the first jobs don't have to
+    */
+    private static void startWarmUp() throws Exception {
+	Map<String, String> props = getTaskConfig().getAllConfigProps();
+	String dmsRefs = props.get(CFG_PROP_WARMUP_DMS_REFS);
+	if (dmsRefs == null || dmsRefs.trim().isEmpty())
+	    return;
+	List<String> refs = new ArrayList<String>();
+	for (String ref : dmsRefs.split(","))
+	    if (!ref.trim().isEmpty())
+		refs.add(ref.trim());
+	File tempDir = DefaultTaskBuilder.getDirParam(props, CFG_PROP_TEMP_DIR);
+	if (!tempDir.exists())
+	    tempDir.mkdirs();
+	DomainSearchTask dst = new DomainSearchTask(tempDir, DefaultTaskBuilder.createDefaultObjectStorage(getTaskConfig().getWsUrl(), props));
+	LibraryWarmUp.getInstance().start(dst, props.get(CFG_PROP_WARMUP_TOKEN), refs);
+    }
+
     private static UserAndJobStateClient createJobClient(String jobSrvUrl, String token) throws IOException, JsonClientException {
 	try {
 	    UserAndJobStateClient ret = new UserAndJobStateClient(new URL(jobSrvUrl), new AuthToken(token));
@@ -141,6 +190,7 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
     public KBaseGeneFamiliesServer() throws Exception {
         super("KBaseGeneFamilies");
         //BEGIN_CONSTRUCTOR
+	startWarmUp();
         //END_CONSTRUCTOR
     }
 
@@ -162,6 +212,42 @@ public class KBaseGeneFamiliesServer extends JsonServerServlet {
         return returnVal;
     }
 
+    /**
+     * <p>Original spec-file function name: search_domains_many</p>
+     * <pre>
+     * Searches domains in a batch of genomes in one job, saving one
+     * DomainAnnotation per genome.
+     * </pre>
+     * @param   params   instance of type {@link us.kbase.kbasegenefamilies.SearchDomainsManyParams SearchDomainsManyParams}
+     * @return   parameter "job_id" of String
+     */
+    @JsonServerMethod(rpc = "KBaseGeneFamilies.search_domains_many")
+    public String searchDomainsMany(SearchDomainsManyParams params, AuthToken authPart) throws Exception {
+        String returnVal = null;
+        //BEGIN search_domains_many
+        returnVal = getTaskQueue().addTask(params, authPart.toString());
+        //END search_domains_many
+        return returnVal;
+    }
+
+    /**
+     * <p>Original spec-file function name: warm_up_status</p>
+     * <pre>
+     * Reports the progress of the library warm-up started with the
+     * service, which fetches the configured domain libraries ahead
+     * of the first jobs.
+     * </pre>
+     * @return   parameter "status" of type {@link us.kbase.kbasegenefamilies.WarmUpStatus WarmUpStatus}
+     */
+    @JsonServerMethod(rpc = "KBaseGeneFamilies.warm_up_status")
+    public WarmUpStatus warmUpStatus() throws Exception {
+        WarmUpStatus returnVal = null;
+        //BEGIN warm_up_status
+        returnVal = LibraryWarmUp.getInstance().getStatus();
+        //END warm_up_status
+        return returnVal;
+    }
+
     /**
      * <p>Original spec-file function name: version</p>
      * <pre>
@@ -0,0 +1,227 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+import us.kbase.kbasegenefamilies.util.RangedDownloader;
+import us.kbase.shock.client.BasicShockClient;
+import us.kbase.shock.client.ShockFileInformation;
+import us.kbase.shock.client.ShockNodeId;
+
+/**
+   Local cache of library files downloaded from Shock.  Entries are
+   named by Shock node id and MD5 checksum, so a file is never
+   mistaken for another version of itself.  Each download goes to a
+   partial file, is checked against the size and checksum Shock
+   reports, and is then renamed into place; a partial download can
+   never be seen as a cache entry.  Concurrent requests for the
+   same entry, from any task in this process, share one download.
+   Downloads are made in parallel byte ranges; an interrupted one
+   leaves its partial file behind, and is resumed by the next
+   request for the entry.
+
+   Entries are evicted least recently used first when the cache
+   grows past its disk budget.  Entries in use by a running search
+   are pinned, and are never evicted until released.
+*/
+public class LibraryFileCache {
+    private static final ConcurrentHashMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+    private static final Map<String, Integer> pins = new HashMap<String, Integer>();
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final File dir;
+    private final long maxBytes;
+    private final RangedDownloader downloader;
+
+    /**
+       Makes a cache in a directory; maxBytes of 0 or less means
+       entries are never evicted
+    */
+    public LibraryFileCache(File dir, long maxBytes, RangedDownloader downloader) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.downloader = downloader;
+        if (!dir.exists())
+            dir.mkdirs();
+    }
+
+    /**
+       Returns the cache entry holding a Shock node's file,
+       downloading it first if needed.  The entry is pinned until
+       release() is called on it.
+    */
+    public File getFile(BasicShockClient client,
+                        String shockId) throws Exception {
+        ShockFileInformation info = client.getNode(new ShockNodeId(shockId)).getFileInformation();
+        return getFile(shockId, info.getSize(), info.getChecksum("md5"));
+    }
+
+    /**
+       Returns the cache entry holding a Shock node's file of a
+       given size and MD5 checksum, which may be null if Shock has
+       none, downloading it first if needed.  The entry is pinned
+       until release() is called on it.
+    */
+    public File getFile(final String shockId,
+                        final long size,
+                        final String md5) throws Exception {
+        final File f = new File(dir, shockId + "_" + (md5 == null ? "nomd5" : md5));
+        final String key = f.getAbsolutePath();
+        pin(key);
+        try {
+            if (f.isFile() && f.length() == size) {
+                f.setLastModified(System.currentTimeMillis());
+                return f;
+            }
+            FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        download(shockId, size, md5, f);
+                        return f;
+                    }
+                });
+            FutureTask<File> running = downloads.putIfAbsent(key, task);
+            if (running == null) {
+                try {
+                    task.run();
+                }
+                finally {
+                    downloads.remove(key, task);
+                }
+                running = task;
+            }
+            try {
+                running.get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                    throw (Exception)cause;
+                throw new IllegalStateException(cause);
+            }
+            evict();
+            return f;
+        }
+        catch (Exception e) {
+            release(f);
+            throw e;
+        }
+    }
+
+    /**
+       Unpins an entry returned by getFile(), so it may be evicted
+    */
+    public void release(File f) {
+        String key = f.getAbsolutePath();
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            if (count == null)
+                return;
+            if (count <= 1)
+                pins.remove(key);
+            else
+                pins.put(key, count - 1);
+        }
+    }
+
+    /**
+       Removes least recently used entries that aren't pinned until
+       the cache fits in its disk budget
+    */
+    public void evict() {
+        if (maxBytes <= 0)
+            return;
+        synchronized (pins) {
+            File[] files = dir.listFiles();
+            if (files == null)
+                return;
+            long total = 0;
+            List<File> entries = new ArrayList<File>();
+            for (File f : files) {
+                if (!f.isFile() || f.getName().contains(PART_SUFFIX))
+                    continue;
+                total += f.length();
+                entries.add(f);
+            }
+            if (total <= maxBytes)
+                return;
+            final Map<File,Long> lastUsed = new HashMap<File,Long>();
+            for (File f : entries)
+                lastUsed.put(f, f.lastModified());
+            Collections.sort(entries, new Comparator<File>() {
+                    @Override
+                    public int compare(File o1, File o2) {
+                        return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+                    }
+                });
+            for (File f : entries) {
+                if (total <= maxBytes)
+                    break;
+                if (pins.containsKey(f.getAbsolutePath()))
+                    continue;
+                long length = f.length();
+                if (f.delete())
+                    total -= length;
+            }
+        }
+    }
+
+    private static void pin(String key) {
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            pins.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+       Downloads a file into a partial file, checks it, and renames
+       it into place.  A partial file that fails its checks is
+       removed, so the next attempt starts over.
+    */
+    private void download(String shockId,
+                          long size,
+                          String md5,
+                          File f) throws Exception {
+        File part = new File(dir, f.getName() + PART_SUFFIX);
+        downloader.download(shockId, size, part);
+        try {
+            if (part.length() != size)
+                throw new IOException("Download of Shock node "+shockId+" is "+part.length()+" bytes, expected "+size);
+            if (md5 != null) {
+                String actual = getMd5(part);
+                if (!actual.equalsIgnoreCase(md5))
+                    throw new IOException("Download of Shock node "+shockId+" has MD5 "+actual+", expected "+md5);
+            }
+        }
+        catch (IOException e) {
+            part.delete();
+            throw e;
+        }
+        if (!part.renameTo(f)) {
+            f.delete();
+            if (!part.renameTo(f))
+                throw new IOException("Can't move "+part+" to "+f);
+        }
+    }
+
+    private static String getMd5(File f) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        InputStream is = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                md.update(buf, 0, n);
+        }
+        finally {
+            is.close();
+        }
+        StringBuilder rv = new StringBuilder();
+        for (byte b : md.digest())
+            rv.append(String.format("%02x", b & 0xff));
+        return rv.toString();
+    }
+}
@@ -0,0 +1,223 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   Background warm-up of the domain libraries a deployment is
+   expected to search, started when the server starts.  Each library
+   of the configured DomainModelSets has its files fetched into the
+   library file cache, and the search programs are prepared, so the
+   first jobs don't pay for the downloads.
+
+   Jobs that need a library still being warmed up wait for it,
+   rather than downloading the same files themselves.  A library
+   that fails is reported in the status, and doesn't stop the
+   others; the warm-up is only marked failed once they've all
+   finished.
+*/
+public class LibraryWarmUp {
+    public static final String STATE_NOT_STARTED = "not started";
+    public static final String STATE_RUNNING = "running";
+    public static final String STATE_DONE = "done";
+    public static final String STATE_FAILED = "failed";
+
+    private static LibraryWarmUp instance = null;
+
+    private final Map<String, FutureTask<Object>> libraries = new LinkedHashMap<String, FutureTask<Object>>();
+    private final List<String> errors = new ArrayList<String>();
+    private FutureTask<Object> warmUp = null;
+    private String state = STATE_NOT_STARTED;
+
+    /**
+       Fetches one library for the warm-up
+    */
+    public interface LibraryWarmer {
+        public void warmUp(String libraryRef) throws Exception;
+    }
+
+    /**
+       The warm-up of the server, which jobs wait on
+    */
+    public static synchronized LibraryWarmUp getInstance() {
+        if (instance == null)
+            instance = new LibraryWarmUp();
+        return instance;
+    }
+
+    /**
+       Starts warming up the libraries of some DomainModelSets in a
+       background thread.  The token may be null, when the sets and
+       libraries are publicly readable.  Does nothing if a warm-up
+       has already been started.
+    */
+    public void start(final DomainSearchTask dst,
+                      final String token,
+                      final List<String> dmsRefs) throws Exception {
+        start(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    dst.prepareBins();
+                    List<String> rv = new ArrayList<String>();
+                    for (String dmsRef : dmsRefs)
+                        rv.addAll(DomainLibraryCache.getDomainLibs(dst.storage, token, dmsRef).values());
+                    return rv;
+                }
+            }, new LibraryWarmer() {
+                @Override
+                public void warmUp(String libraryRef) throws Exception {
+                    // this also caches the library's model lengths
+                    DomainLibrary dl = DomainLibraryCache.getLibrary(dst.storage, token, libraryRef).getLibrary();
+                    dst.warmUpLibrary(dl);
+                }
+            }, DomainSearchTask.getLibraryThreadCount());
+    }
+
+    /**
+       Starts warming up the libraries listed by a job, on up to
+       maxThreads threads at once.  Does nothing if a warm-up has
+       already been started.
+    */
+    public synchronized void start(final Callable<List<String>> libraryLister,
+                                   final LibraryWarmer warmer,
+                                   final int maxThreads) {
+        if (warmUp != null)
+            return;
+        state = STATE_RUNNING;
+        warmUp = new FutureTask<Object>(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    run(libraryLister, warmer, maxThreads);
+                    return null;
+                }
+            });
+        Thread t = new Thread(warmUp, "library-warm-up");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+       Waits for the warm-up of a library, if one was started for
+       it.  A failed warm-up isn't an error here; the job fetches
+       the library itself.
+    */
+    public void awaitLibrary(String libraryRef) throws InterruptedException {
+        FutureTask<Object> task;
+        synchronized (this) {
+            task = libraries.get(libraryRef);
+        }
+        await(task);
+    }
+
+    /**
+       Waits for the whole warm-up to finish, if one was started
+    */
+    public void await() throws InterruptedException {
+        FutureTask<Object> task;
+        synchronized (this) {
+            task = warmUp;
+        }
+        await(task);
+    }
+
+    /**
+       Reports the progress of the warm-up
+    */
+    public synchronized WarmUpStatus getStatus() {
+        long ready = 0;
+        for (FutureTask<Object> task : libraries.values()) {
+            if (!task.isDone())
+                continue;
+            try {
+                task.get();
+                ready++;
+            }
+            catch (Exception e) {
+                // counted as not ready
+            }
+        }
+        return new WarmUpStatus()
+            .withState(state)
+            .withLibrariesTotal((long)libraries.size())
+            .withLibrariesReady(ready)
+            .withErrors(new ArrayList<String>(errors));
+    }
+
+    private static void await(FutureTask<Object> task) throws InterruptedException {
+        if (task == null)
+            return;
+        try {
+            task.get();
+        }
+        catch (ExecutionException e) {
+            // reported in the status
+        }
+        catch (CancellationException e) {
+            // the warm-up failed before reaching it
+        }
+    }
+
+    private void run(Callable<List<String>> libraryLister,
+                     final LibraryWarmer warmer,
+                     int maxThreads) throws Exception {
+        try {
+            // register every library before fetching any, so jobs
+            // started meanwhile know to wait for them
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+            for (final String libraryRef : libraryLister.call()) {
+                final FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            try {
+                                warmer.warmUp(libraryRef);
+                                return null;
+                            }
+                            catch (Exception e) {
+                                addError("Library " + libraryRef + ": " + e.getMessage());
+                                throw e;
+                            }
+                        }
+                    });
+                synchronized (this) {
+                    if (libraries.containsKey(libraryRef))
+                        continue;
+                    libraries.put(libraryRef, task);
+                }
+                jobs.add(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            // a library's failure stays in its task,
+                            // so the other libraries carry on
+                            task.run();
+                            return null;
+                        }
+                    });
+            }
+            DomainSearchTask.runConcurrently(jobs, Math.max(1, maxThreads));
+            boolean failed;
+            synchronized (this) {
+                failed = !errors.isEmpty();
+            }
+            setState(failed ? STATE_FAILED : STATE_DONE);
+        }
+        catch (Exception e) {
+            addError(e.getMessage());
+            setState(STATE_FAILED);
+            // libraries not started yet won't be; don't leave jobs
+            // waiting for them
+            synchronized (this) {
+                for (FutureTask<Object> task : libraries.values())
+                    task.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void addError(String error) {
+        errors.add(error);
+    }
+
+    private synchronized void setState(String newState) {
+        state = newState;
+    }
+}
@@ -0,0 +1,168 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.*;
+
+/**
+   Admits search jobs by their estimated memory footprint, so jobs
+   on huge genomes don't exhaust the heap or leave the search
+   programs short of RAM, while small jobs still use memory the
+   large ones leave idle.
+
+   A job starts when its estimate fits in what's left of the
+   budget.  Jobs that fit may start ahead of older jobs that don't
+   (backfill), until the oldest waiting job has waited longer than
+   the backfill window; then nothing else starts until it has.  A
+   job larger than the whole budget runs alone.
+*/
+public class MemoryAdmission {
+    /** heap used by a job regardless of its size */
+    public static final long JOB_BASE_BYTES = 64L << 20;
+    /** heap per feature: layout, hits and annotation entries */
+    public static final long FEATURE_BYTES = 2048L;
+    /** heap per residue: the sequence, its FASTA shard and query copies */
+    public static final long RESIDUE_BYTES = 8L;
+    /** memory per running hmmscan: it streams its database */
+    public static final long HMMSCAN_PROCESS_BYTES = 256L << 20;
+    /** assumed protein length when a genome doesn't record lengths */
+    public static final long DEFAULT_PROTEIN_LENGTH = 330L;
+
+    private static MemoryAdmission instance = null;
+
+    private final long budgetBytes;
+    private final long backfillMillis;
+    private final LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+    private long usedBytes = 0;
+    private int running = 0;
+
+    /**
+       A job's share of the budget, given back by release()
+    */
+    public class Ticket {
+        private final long bytes;
+        private final long since = System.currentTimeMillis();
+        private boolean released = false;
+
+        private Ticket(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+           Gives the job's share back; may be called more than once
+        */
+        public void release() {
+            synchronized (MemoryAdmission.this) {
+                if (released)
+                    return;
+                released = true;
+                usedBytes -= bytes;
+                running--;
+                MemoryAdmission.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+       Makes an admission controller; a budget of 0 or less admits
+       every job at once
+    */
+    public MemoryAdmission(long budgetBytes,
+                           long backfillMillis) {
+        this.budgetBytes = budgetBytes;
+        this.backfillMillis = backfillMillis;
+    }
+
+    /**
+       The controller shared by the whole service, configured by
+       memory.budget.mb and memory.backfill.seconds
+    */
+    public static synchronized MemoryAdmission getInstance() throws Exception {
+        if (instance == null) {
+            Map<String,String> props = KBaseGeneFamiliesServer.getTaskConfig().getAllConfigProps();
+            String budget = props.get(KBaseGeneFamiliesServer.CFG_PROP_MEMORY_BUDGET_MB);
+            String backfill = props.get(KBaseGeneFamiliesServer.CFG_PROP_MEMORY_BACKFILL_SECONDS);
+            instance = new MemoryAdmission(budget == null ? 0 : Long.parseLong(budget) << 20,
+                                           (backfill == null ? 600 : Long.parseLong(backfill)) * 1000L);
+        }
+        return instance;
+    }
+
+    /**
+       Estimates the memory a search needs, in the JVM and in the
+       search programs, from the total features and residues of its
+       genomes and from the libraries searched.  RPS-BLAST maps its
+       whole database, so each rpsblast library counts at its file
+       size; hmmscan streams its database, so each hmmscan library
+       counts at a fixed size.
+    */
+    public static long estimateBytes(long featureCount,
+                                     long residues,
+                                     List<String> libraryPrograms,
+                                     List<Long> librarySizes) {
+        long rv = JOB_BASE_BYTES + featureCount * FEATURE_BYTES + residues * RESIDUE_BYTES;
+        for (int i = 0; i < libraryPrograms.size(); i++) {
+            if (libraryPrograms.get(i).equals(DomainSearchTask.HMMSCAN_PROGRAM))
+                rv += HMMSCAN_PROCESS_BYTES;
+            else
+                rv += librarySizes.get(i);
+        }
+        return rv;
+    }
+
+    /**
+       Waits until a job of the estimated size may start, and
+       returns its ticket
+    */
+    public synchronized Ticket admit(long bytes) throws InterruptedException {
+        Ticket ticket = new Ticket(bytes);
+        if (budgetBytes <= 0) {
+            usedBytes += bytes;
+            running++;
+            return ticket;
+        }
+        waiting.add(ticket);
+        try {
+            while (!mayStart(ticket))
+                wait();
+        }
+        finally {
+            waiting.remove(ticket);
+            notifyAll();
+        }
+        usedBytes += bytes;
+        running++;
+        return ticket;
+    }
+
+    private boolean mayStart(Ticket ticket) {
+        boolean fits = running == 0 || usedBytes + ticket.bytes <= budgetBytes;
+        if (!fits)
+            return false;
+        Ticket oldest = waiting.getFirst();
+        return oldest == ticket ||
+            System.currentTimeMillis() - oldest.since < backfillMillis;
+    }
+
+    /**
+       Whether jobs are admitted by footprint at all; if not, their
+       footprint needn't be estimated
+    */
+    public boolean isEnabled() {
+        return budgetBytes > 0;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+}
@@ -1,9 +1,11 @@
 package us.kbase.kbasegenefamilies;
 
+import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
 
 import us.kbase.common.service.Tuple11;
+import us.kbase.workspace.GetObjectInfoNewParams;
 import us.kbase.workspace.ListObjectsParams;
 import us.kbase.workspace.ObjectData;
 import us.kbase.workspace.ObjectIdentity;
@@ -11,6 +13,14 @@ import us.kbase.workspace.SaveObjectsParams;
 import us.kbase.workspace.SubObjectIdentity;
 
 public interface ObjectStorage {
+    /**
+       A workspace call whose request is written to, and whose
+       response is read from, a connection as they go
+    */
+    public interface StreamingCall<T> {
+        public T call(HttpURLConnection conn) throws Exception;
+    }
+
     public List<ObjectData> getObjects(String authToken, List<ObjectIdentity> objectIds) throws Exception;
     
     public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>>> saveObjects(
@@ -20,6 +30,16 @@ public interface ObjectStorage {
 			String authToken, ListObjectsParams params) throws Exception;
 
     public List<ObjectData> getObjectSubset(String authToken, List<SubObjectIdentity> objectIds) throws Exception;
+
+    public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> getObjectInfoNew(
+            String authToken, GetObjectInfoNewParams params) throws Exception;
     
     public String getUrl();
+
+    /**
+       Makes a streaming call through a JSON-RPC POST connection to
+       the workspace, authorized by the token, and with timeouts set.
+       The call writes its request and reads the response itself.
+    */
+    public <T> T callStreaming(String authToken, StreamingCall<T> call) throws Exception;
 }
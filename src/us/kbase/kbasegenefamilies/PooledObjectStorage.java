@@ -0,0 +1,283 @@
+package us.kbase.kbasegenefamilies;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.common.service.Tuple11;
+import us.kbase.workspace.GetObjectInfoNewParams;
+import us.kbase.workspace.ListObjectsParams;
+import us.kbase.workspace.ObjectData;
+import us.kbase.workspace.ObjectIdentity;
+import us.kbase.workspace.SaveObjectsParams;
+import us.kbase.workspace.SubObjectIdentity;
+import us.kbase.workspace.WorkspaceClient;
+
+/**
+   Object storage backed by a workspace service, shared by every
+   task thread.  One WorkspaceClient is kept per token, so a token is
+   parsed once rather than on every call, and is dropped after it
+   hasn't been used for a while.
+
+   The clients make their calls through HttpURLConnection, whose
+   keep-alive cache is shared by the whole JVM; its size per host is
+   raised to the concurrency limit, so up to that many connections,
+   and their TLS sessions, are reused between calls instead of being
+   set up again.  Calls beyond the limit wait for a free connection.
+   Streaming calls, which write their requests and read their
+   responses themselves, count against the same limit.
+*/
+public class PooledObjectStorage implements ObjectStorage {
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_CLIENT_EXPIRY_SECONDS = 600;
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 900;
+
+    private static final Map<String, PooledObjectStorage> instances = new HashMap<String, PooledObjectStorage>();
+
+    private final String wsUrl;
+    private final Semaphore connections;
+    private final long expiryMillis;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Map<String, PooledClient> clients = new HashMap<String, PooledClient>();
+    private PooledClient anonymous = null;
+
+    private static class PooledClient {
+        final WorkspaceClient client;
+        long lastUsed;
+
+        PooledClient(WorkspaceClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+       Makes storage allowing at most maxConnections calls to the
+       workspace at once, and dropping clients unused for expiryMillis
+    */
+    public PooledObjectStorage(String wsUrl,
+                               int maxConnections,
+                               long expiryMillis) {
+        this(wsUrl, maxConnections, expiryMillis,
+             DEFAULT_CONNECT_TIMEOUT_SECONDS * 1000, DEFAULT_READ_TIMEOUT_SECONDS * 1000);
+    }
+
+    /**
+       Makes storage as above whose streaming calls give up on
+       connecting after connectTimeoutMillis, and on a response that
+       stalls for readTimeoutMillis
+    */
+    public PooledObjectStorage(String wsUrl,
+                               int maxConnections,
+                               long expiryMillis,
+                               int connectTimeoutMillis,
+                               int readTimeoutMillis) {
+        this.wsUrl = wsUrl;
+        this.connections = new Semaphore(Math.max(1, maxConnections), true);
+        this.expiryMillis = expiryMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+       The storage shared by all tasks using a workspace URL.  Its
+       limits are set by workspace.max.connections,
+       workspace.client.expiry.seconds,
+       workspace.connect.timeout.seconds and
+       workspace.read.timeout.seconds in the configuration.
+    */
+    public static synchronized PooledObjectStorage getInstance(String wsUrl,
+                                                               Map<String,String> configParams) {
+        PooledObjectStorage rv = instances.get(wsUrl);
+        if (rv == null) {
+            int maxConnections = getIntParam(configParams, KBaseGeneFamiliesServer.CFG_PROP_WS_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+            int expirySeconds = getIntParam(configParams, KBaseGeneFamiliesServer.CFG_PROP_WS_CLIENT_EXPIRY_SECONDS, DEFAULT_CLIENT_EXPIRY_SECONDS);
+            int connectSeconds = getIntParam(configParams, KBaseGeneFamiliesServer.CFG_PROP_WS_CONNECT_TIMEOUT_SECONDS, DEFAULT_CONNECT_TIMEOUT_SECONDS);
+            int readSeconds = getIntParam(configParams, KBaseGeneFamiliesServer.CFG_PROP_WS_READ_TIMEOUT_SECONDS, DEFAULT_READ_TIMEOUT_SECONDS);
+            rv = new PooledObjectStorage(wsUrl, maxConnections, expirySeconds * 1000L,
+                                         connectSeconds * 1000, readSeconds * 1000);
+            instances.put(wsUrl, rv);
+        }
+        return rv;
+    }
+
+    @Override
+    public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> saveObjects(
+            String authToken, SaveObjectsParams params) throws Exception {
+        WorkspaceClient client = getClient(authToken);
+        connections.acquire();
+        try {
+            return client.saveObjects(params);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public List<ObjectData> getObjects(String authToken,
+                                       List<ObjectIdentity> objectIds) throws Exception {
+        WorkspaceClient client = getClient(authToken);
+        connections.acquire();
+        try {
+            return client.getObjects(objectIds);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> listObjects(
+            String authToken, ListObjectsParams params) throws Exception {
+        WorkspaceClient client = getClient(authToken);
+        connections.acquire();
+        try {
+            return client.listObjects(params);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public List<ObjectData> getObjectSubset(String authToken,
+                                            List<SubObjectIdentity> objectIds) throws Exception {
+        WorkspaceClient client = getClient(authToken);
+        connections.acquire();
+        try {
+            return client.getObjectSubset(objectIds);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> getObjectInfoNew(
+            String authToken, GetObjectInfoNewParams params) throws Exception {
+        WorkspaceClient client = getClient(authToken);
+        connections.acquire();
+        try {
+            return client.getObjectInfoNew(params);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public String getUrl() {
+        return wsUrl;
+    }
+
+    /**
+       Makes a streaming call once a connection is free.  The
+       token's client is looked up as for any other call, so the
+       token is checked once and kept with the others.
+    */
+    @Override
+    public <T> T callStreaming(String authToken,
+                               StreamingCall<T> call) throws Exception {
+        getClient(authToken);
+        connections.acquire();
+        try {
+            return call.call(openConnection(wsUrl, authToken, connectTimeoutMillis, readTimeoutMillis));
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    /**
+       Opens a JSON-RPC POST connection to a workspace, with
+       timeouts, for a call to write its request to
+    */
+    public static HttpURLConnection openConnection(String wsUrl,
+                                                   String authToken,
+                                                   int connectTimeoutMillis,
+                                                   int readTimeoutMillis) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection)new URL(wsUrl).openConnection();
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        if (authToken != null)
+            conn.setRequestProperty("Authorization", authToken);
+        return conn;
+    }
+
+    /**
+       Returns the client for a token, making it if there's none or
+       the last one expired.  A null token gets an anonymous client.
+    */
+    public synchronized WorkspaceClient getClient(String authToken) throws Exception {
+        long now = System.currentTimeMillis();
+        expire(now);
+        PooledClient pc = authToken == null ? anonymous : clients.get(authToken);
+        if (pc == null) {
+            pc = new PooledClient(newClient(authToken));
+            if (authToken == null)
+                anonymous = pc;
+            else
+                clients.put(authToken, pc);
+        }
+        pc.lastUsed = now;
+        return pc.client;
+    }
+
+    /**
+       Number of clients kept, not counting the anonymous one
+    */
+    public synchronized int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+       Number of calls that could be made right now without waiting
+    */
+    public int getFreeConnections() {
+        return connections.availablePermits();
+    }
+
+    protected WorkspaceClient newClient(String authToken) throws Exception {
+        if (authToken == null)
+            return new WorkspaceClient(new URL(wsUrl));
+        WorkspaceClient client = new WorkspaceClient(new URL(wsUrl), new AuthToken(authToken));
+        client.setAuthAllowedForHttp(true);
+        return client;
+    }
+
+    private void expire(long now) {
+        Iterator<PooledClient> iter = clients.values().iterator();
+        while (iter.hasNext())
+            if (now - iter.next().lastUsed > expiryMillis)
+                iter.remove();
+    }
+
+    /**
+       Lets the JVM keep as many idle connections per host as
+       workspace.max.connections allows calls at once, unless that's
+       been set explicitly.  The JVM reads http.maxConnections only
+       once, when the first HttpURLConnection is made, so this has to
+       be called at startup before anything talks HTTP.
+    */
+    public static void keepAliveConnections(Map<String,String> configParams) {
+        int maxConnections = getIntParam(configParams, KBaseGeneFamiliesServer.CFG_PROP_WS_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", "" + Math.max(1, maxConnections));
+    }
+
+    private static int getIntParam(Map<String,String> configParams,
+                                   String param,
+                                   int defaultValue) {
+        String value = configParams == null ? null : configParams.get(param);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Integer.parseInt(value.trim());
+    }
+}
@@ -0,0 +1,217 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+   The distinct protein sequences of a genome, kept outside the
+   Java heap in a spool file (or, for small genomes already in
+   memory, a byte buffer) with only their offsets, lengths and
+   digests on the heap.  Sequences are written once, as they're
+   read, and copied from the spool into the FASTA files searched.
+
+   Sequences are told apart by their MD5 digest, so a sequence the
+   same as one already spooled is found without keeping either one
+   as a String.
+*/
+public class ProteinSpool implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private OutputStream out;
+    private RandomAccessFile in = null;
+    private byte[] memory;
+    private long size = 0;
+
+    private int count = 0;
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private long[] digestHi = new long[1024];
+    private long[] digestLo = new long[1024];
+    // open addressing table from digest to index (plus one, so 0
+    // marks an empty slot)
+    private int[] table = new int[2048];
+
+    private final MessageDigest md;
+    private byte[] seqBytes = new byte[1024];
+
+    /**
+       Makes a spool in a file in a directory, or in memory if the
+       directory is null
+    */
+    public ProteinSpool(File dir) throws IOException {
+        if (dir == null) {
+            file = null;
+            memory = new byte[BUFFER_SIZE];
+        }
+        else {
+            file = File.createTempFile("proteins", ".spool", dir);
+            out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        }
+        try {
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+       Adds a sequence to the spool, unless the same sequence is
+       already there.  Returns the index of the sequence if it was
+       added, or -(index + 1) of the sequence already there.
+       Sequences can't be added once any have been read back.
+    */
+    public synchronized int add(String seq) throws IOException {
+        if (in != null)
+            throw new IllegalStateException("Protein spool is already being read");
+        int len = seq.length();
+        if (seqBytes.length < len)
+            seqBytes = new byte[Math.max(len, seqBytes.length * 2)];
+        for (int i = 0; i < len; i++)
+            seqBytes[i] = (byte)seq.charAt(i);
+        md.reset();
+        md.update(seqBytes, 0, len);
+        byte[] digest = md.digest();
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        int mask = table.length - 1;
+        int slot = (int)(hi ^ (hi >>> 32)) & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (digestHi[index] == hi && digestLo[index] == lo)
+                return -(index + 1);
+            slot = (slot + 1) & mask;
+        }
+        if (count == offsets.length) {
+            int n = count * 2;
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            digestHi = Arrays.copyOf(digestHi, n);
+            digestLo = Arrays.copyOf(digestLo, n);
+        }
+        offsets[count] = size;
+        lengths[count] = len;
+        digestHi[count] = hi;
+        digestLo[count] = lo;
+        write(seqBytes, len);
+        table[slot] = ++count;
+        if (count * 2 > table.length)
+            growTable();
+        return count - 1;
+    }
+
+    private void write(byte[] b, int len) throws IOException {
+        if (file == null) {
+            if (size + len > memory.length)
+                memory = Arrays.copyOf(memory, (int)Math.max(size + len, memory.length * 2L));
+            System.arraycopy(b, 0, memory, (int)size, len);
+        }
+        else {
+            out.write(b, 0, len);
+        }
+        size += len;
+    }
+
+    private void growTable() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int index = 0; index < count; index++) {
+            long hi = digestHi[index];
+            int slot = (int)(hi ^ (hi >>> 32)) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = index + 1;
+        }
+    }
+
+    private static long toLong(byte[] b, int from) {
+        long rv = 0;
+        for (int i = from; i < from + 8; i++)
+            rv = (rv << 8) | (b[i] & 0xff);
+        return rv;
+    }
+
+    /**
+       Number of distinct sequences
+    */
+    public int getCount() {
+        return count;
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+       The MD5 digest of a sequence, which stands for its content
+    */
+    public byte[] getDigest(int index) {
+        byte[] rv = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            rv[i] = (byte)(digestHi[index] >>> (56 - 8 * i));
+            rv[8 + i] = (byte)(digestLo[index] >>> (56 - 8 * i));
+        }
+        return rv;
+    }
+
+    /**
+       Reads a sequence back from the spool
+    */
+    public String getSequence(int index) throws IOException {
+        byte[] b = new byte[lengths[index]];
+        read(index, b);
+        return new String(b, "US-ASCII");
+    }
+
+    /**
+       Writes a sequence as a FASTA record with a name
+    */
+    public synchronized void writeFasta(int index,
+                                        String name,
+                                        OutputStream os) throws IOException {
+        int len = lengths[index];
+        if (seqBytes.length < len)
+            seqBytes = new byte[Math.max(len, seqBytes.length * 2)];
+        read(index, seqBytes);
+        os.write('>');
+        os.write(name.getBytes("US-ASCII"));
+        os.write('\n');
+        os.write(seqBytes, 0, len);
+        os.write('\n');
+    }
+
+    private synchronized void read(int index, byte[] b) throws IOException {
+        int len = lengths[index];
+        if (file == null) {
+            System.arraycopy(memory, (int)offsets[index], b, 0, len);
+            return;
+        }
+        if (in == null) {
+            out.close();
+            in = new RandomAccessFile(file, "r");
+        }
+        in.seek(offsets[index]);
+        in.readFully(b, 0, len);
+    }
+
+    /**
+       Removes the spool file
+    */
+    @Override
+    public void close() throws IOException {
+        memory = null;
+        if (file == null)
+            return;
+        try {
+            if (in != null)
+                in.close();
+            else
+                out.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
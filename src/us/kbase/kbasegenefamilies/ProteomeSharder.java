@@ -0,0 +1,63 @@
+package us.kbase.kbasegenefamilies;
+
+import java.util.Arrays;
+
+/**
+   Splits a proteome into shards with similar numbers of residues,
+   so that a large genome can be searched by several processes at
+   the same time.  Search statistics don't change, since every
+   shard is still searched against the whole library.
+*/
+public class ProteomeSharder {
+    /**
+       Proteomes smaller than this are never split.  This is about
+       the size of a bacterial genome.
+    */
+    public static final int DEFAULT_MIN_SHARD_RESIDUES = 2000000;
+
+    /**
+       Returns the number of shards to split a proteome into:
+       enough that each has at least minShardResidues residues,
+       but never more than maxShards.
+    */
+    public static int getShardCount(long totalResidues,
+                                    int maxShards,
+                                    long minShardResidues) {
+        if (maxShards <= 1 || minShardResidues <= 0)
+            return 1;
+        long rv = totalResidues / minShardResidues;
+        if (rv < 1)
+            return 1;
+        return (int)Math.min(rv, (long)maxShards);
+    }
+
+    /**
+       Assigns each sequence to a shard, so that the total length in
+       each shard is about the same.  Sequences are placed longest
+       first, each into the shard with the fewest residues so far.
+       Returns the shard number of each sequence.
+    */
+    public static int[] assignShards(int[] lengths, int shardCount) {
+        int[] rv = new int[lengths.length];
+        if (shardCount <= 1)
+            return rv;
+
+        // sort by length (descending), keeping track of the index
+        long[] order = new long[lengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            order[i] = ((long)lengths[i] << 32) | i;
+        Arrays.sort(order);
+
+        long[] load = new long[shardCount];
+        for (int j = order.length - 1; j >= 0; j--) {
+            int i = (int)order[j];
+            int lightest = 0;
+            for (int shard = 1; shard < shardCount; shard++)
+                if (load[shard] < load[lightest])
+                    lightest = shard;
+            rv[i] = lightest;
+            load[lightest] += lengths[i];
+        }
+        return rv;
+    }
+}
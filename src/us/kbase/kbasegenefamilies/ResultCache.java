@@ -0,0 +1,251 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+   Persistent cache of the hits found by searching a set of proteins
+   against one domain library.  Entries are keyed by a hash of the
+   proteins searched (their positions in the genome and the
+   digests of their translations), of the library's identity
+   (id, version, program and library files) and of the engine that
+   searches it, as its E-values depend on that, so rerunning a search
+   on the same genome, or a copy of it, against the same library
+   skips the search tool.  Hits are cached as found for the
+   distinct sequences, before they are copied to other positions
+   with the same sequence.
+
+   Each entry is one file in the cache directory.  Entries are
+   written to a temporary file and renamed into place, so readers
+   never see partial entries.  When the directory grows past its
+   size limit, the least recently used entries are removed.
+
+   Hits and misses are counted from startup, and the hit rate is
+   logged at most every STATS_LOG_INTERVAL_MILLIS as lookups are
+   made.
+*/
+public class ResultCache {
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".hits";
+    private static final long STATS_LOG_INTERVAL_MILLIS = 10 * 60 * 1000L;
+
+    private static final Object evictionLock = new Object();
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final AtomicLong statsLogged = new AtomicLong(System.currentTimeMillis());
+
+    private final File dir;
+    private final long maxBytes;
+
+    public ResultCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.exists())
+            dir.mkdirs();
+    }
+
+    /**
+       Computes the cache key for searching a genome's proteins
+       against a library with an engine, as given by
+       DomainSearchTask.getSearchEngine()
+    */
+    public static String getKey(FeatureLayout layout,
+                                DomainLibrary dl,
+                                String engine) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        List<Integer> positions = layout.getProteinPositions();
+        ProteinSpool spool = layout.getProteinSpool();
+        for (int i = 0; i < positions.size(); i++) {
+            md.update((">" + positions.get(i) + "\n").getBytes("UTF-8"));
+            md.update(spool.getDigest(i));
+        }
+        md.update(("\u0000" + dl.getId() +
+                   "\u0000" + dl.getVersion() +
+                   "\u0000" + dl.getProgram() +
+                   "\u0000" + dl.getSource() +
+                   "\u0000" + engine).getBytes("UTF-8"));
+        for (Handle h : dl.getLibraryFiles())
+            md.update(("\u0000" + h.getShockId() + "\u0000" + h.getFileName()).getBytes("UTF-8"));
+        StringBuilder rv = new StringBuilder();
+        for (byte b : md.digest())
+            rv.append(String.format("%02x", b & 0xff));
+        return rv.toString();
+    }
+
+    /**
+       Returns the cached hits for a key, or null if there are none
+    */
+    public DomainHits get(String key) {
+        logStatistics();
+        File f = getFile(key);
+        if (!f.isFile()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                DomainHits rv = readHits(is);
+                hitCount.incrementAndGet();
+                f.setLastModified(System.currentTimeMillis());
+                return rv;
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch (IOException e) {
+            // unreadable entries are treated as missing, and dropped
+            f.delete();
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+       Stores the hits for a key, then trims the cache to its size
+       limit
+    */
+    public void put(String key,
+                    DomainHits hits) throws IOException {
+        File f = getFile(key);
+        File tmp = File.createTempFile("entry", ".tmp", dir);
+        try {
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                writeHits(os, hits);
+            }
+            finally {
+                os.close();
+            }
+            if (!tmp.renameTo(f)) {
+                f.delete();
+                if (!tmp.renameTo(f))
+                    throw new IOException("Can't move "+tmp+" to "+f);
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+        evict();
+    }
+
+    /**
+       Removes least recently used entries until the cache fits
+       in its size limit
+    */
+    public void evict() {
+        synchronized (evictionLock) {
+            File[] files = dir.listFiles(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File d, String name) {
+                        return name.endsWith(SUFFIX);
+                    }
+                });
+            if (files == null)
+                return;
+            long total = 0;
+            for (File f : files)
+                total += f.length();
+            if (total <= maxBytes)
+                return;
+            final Map<File,Long> lastUsed = new HashMap<File,Long>();
+            for (File f : files)
+                lastUsed.put(f, f.lastModified());
+            Arrays.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File o1, File o2) {
+                        return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+                    }
+                });
+            for (File f : files) {
+                if (total <= maxBytes)
+                    break;
+                long length = f.length();
+                if (f.delete())
+                    total -= length;
+            }
+        }
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+       Fraction of lookups since startup that were found in the cache
+    */
+    public static double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return (total == 0) ? 0.0 : (double)hits / total;
+    }
+
+    /**
+       Logs the hit rate, unless that was done within the interval
+    */
+    private static void logStatistics() {
+        long now = System.currentTimeMillis();
+        long last = statsLogged.get();
+        if (now - last < STATS_LOG_INTERVAL_MILLIS || !statsLogged.compareAndSet(last, now))
+            return;
+        System.out.println("Result cache: " + getHitCount() + " hits, " + getMissCount() +
+                           " misses since startup, hit rate " +
+                           String.format("%.1f%%", getHitRate() * 100.0));
+    }
+
+    private File getFile(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    private static void writeHits(DataOutputStream os,
+                                  DomainHits hits) throws IOException {
+        os.writeInt(FORMAT_VERSION);
+        int modelCount = hits.getModelCount();
+        os.writeInt(modelCount);
+        for (int i = 0; i < modelCount; i++)
+            os.writeUTF(hits.getModelName(i));
+        int size = hits.size();
+        os.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            os.writeInt(hits.getFeature(i));
+            os.writeInt(hits.getModel(i));
+            os.writeInt(hits.getStart(i));
+            os.writeInt(hits.getStop(i));
+            os.writeDouble(hits.getEvalue(i));
+            os.writeDouble(hits.getBitscore(i));
+            os.writeDouble(hits.getCoverage(i));
+        }
+    }
+
+    private static DomainHits readHits(DataInputStream is) throws IOException {
+        if (is.readInt() != FORMAT_VERSION)
+            throw new IOException("Unknown result cache format");
+        int modelCount = is.readInt();
+        String[] modelNames = new String[modelCount];
+        for (int i = 0; i < modelCount; i++)
+            modelNames[i] = is.readUTF();
+        int size = is.readInt();
+        DomainHits rv = new DomainHits();
+        for (int i = 0; i < size; i++) {
+            int feature = is.readInt();
+            int model = is.readInt();
+            if (model < 0 || model >= modelCount)
+                throw new IOException("Corrupt result cache entry");
+            rv.add(feature,
+                   modelNames[model],
+                   is.readInt(),
+                   is.readInt(),
+                   is.readDouble(),
+                   is.readDouble(),
+                   is.readDouble());
+        }
+        return rv;
+    }
+}
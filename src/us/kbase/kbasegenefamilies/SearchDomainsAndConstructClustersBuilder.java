@@ -62,7 +62,7 @@ public class SearchDomainsAndConstructClustersBuilder extends DefaultTaskBuilder
 		boolean isGenomeAnnotationStoredOutside = inputData.getIsGenomeAnnotationStoredOutside() != null && 
 				inputData.getIsGenomeAnnotationStoredOutside() != 0L;
 		for (String genomeRef : inputData.getGenomes()) {
-			Tuple2<DomainAnnotation, DomainAlignments> annAln = dst.runDomainSearch(token, dmsRef, genomeRef);
+			DomainSearchResult annRes = dst.searchDomains(token, dmsRef, genomeRef);
 			if (isGenomeAnnotationStoredOutside) {
 				String genomeObjectName = storage.getObjectSubset(token, Arrays.asList(new SubObjectIdentity().withRef(
 						genomeRef).withIncluded(Arrays.asList("id")))).get(0).getInfo().getE2();
@@ -74,10 +74,11 @@ public class SearchDomainsAndConstructClustersBuilder extends DefaultTaskBuilder
 					suff = "";
 				String annObjName = pref + genomeObjectName + suff;
 				String annRef = SearchDomainsBuilder.saveAnnotation(storage, token, inputData.getOutWorkspace(), 
-						annObjName, annAln.getE1(), annAln.getE2(), genomeRef, inputData, serviceMethod);
+						annObjName, annRes, inputData, serviceMethod);
 				annRefs.add(annRef);
 			} else {
-				annsAlns.add(annAln);
+				// clusters are built from annotations in memory
+				annsAlns.add(new Tuple2<DomainAnnotation, DomainAlignments>().withE1(annRes.toAnnotation()));
 			}
 		}
 		GenomeAnnotationAlignmentProvider annAlnProv = new GenomeAnnotationAlignmentProvider(
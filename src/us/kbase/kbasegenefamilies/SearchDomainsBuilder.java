@@ -1,13 +1,17 @@
 package us.kbase.kbasegenefamilies;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import us.kbase.common.service.Tuple2;
 import us.kbase.common.service.UObject;
-import us.kbase.workspace.ObjectSaveData;
+import us.kbase.kbasegenefamilies.util.StreamingSaver;
 import us.kbase.workspace.ProvenanceAction;
-import us.kbase.workspace.SaveObjectsParams;
 
 public class SearchDomainsBuilder extends DefaultTaskBuilder<SearchDomainsParams> {
 
@@ -38,33 +42,63 @@ public class SearchDomainsBuilder extends DefaultTaskBuilder<SearchDomainsParams
 	public void run(String token, SearchDomainsParams inputData, String jobId,
 			String outRef) throws Exception {
 	DomainSearchTask dst = new DomainSearchTask(tempDir, storage);
-	DomainAnnotation res = dst.runDomainSearch(token, inputData.getDmsRef(), inputData.getGenome());
-	saveResult(inputData.getOutWorkspace(), inputData.getOutResultId(), token, res, inputData);
+	MemoryAdmission.Ticket ticket = admit(dst, token, inputData.getDmsRef(), Arrays.asList(inputData.getGenome()));
+	try {
+	    DomainSearchResult res = dst.searchDomains(token, inputData.getDmsRef(), inputData.getGenome());
+	    saveResult(inputData.getOutWorkspace(), inputData.getOutResultId(), token, res, inputData);
+	}
+	finally {
+	    ticket.release();
+	}
+    }
+
+    /**
+       Waits until there's memory for a search to run, going by its
+       estimated footprint
+    */
+    public static MemoryAdmission.Ticket admit(DomainSearchTask dst, String token, String dmsRef,
+					       List<String> genomeRefs) throws Exception {
+	MemoryAdmission admission = MemoryAdmission.getInstance();
+	long bytes = 0;
+	if (admission.isEnabled())
+	    bytes = dst.estimateFootprint(token, dmsRef, genomeRefs);
+	return admission.admit(bytes);
     }
 	
-    private void saveResult(String ws, String id, String token, DomainAnnotation annRes, 
+    private void saveResult(String ws, String id, String token, DomainSearchResult annRes, 
 			    SearchDomainsParams inputData) throws Exception {
-	saveAnnotation(storage, token, ws, id, annRes, inputData.getGenome(), inputData, "search_domains");
+	saveAnnotation(storage, token, ws, id, annRes, inputData, "search_domains");
     }
 	
+    /**
+       Saves the annotation from a search, streaming it into the
+       save request as it's written out rather than building the
+       DomainAnnotation first.  The metadata comes from the
+       statistics kept while the hits were found, including the
+       fuller summary of them.
+    */
     public static String saveAnnotation(ObjectStorage storage, String token, String ws, String id, 
-					DomainAnnotation annRes, String genomeRef, 
+					final DomainSearchResult annRes, 
 					Object inputData, String serviceMethod) throws Exception {
-	ObjectSaveData data = new ObjectSaveData().withData(new UObject(annRes))
-	    .withType(DomainSearchTask.domainAnnotationWsType)
-	    .withMeta(DomainSearchTask.getMetadata(annRes))
-	    .withProvenance(Arrays.asList(new ProvenanceAction()
-					  .withDescription("Domain annotation was calculated with rps-blast/hmmer")
-					  .withService(KBaseGeneFamiliesServer.SERVICE_REGISTERED_NAME)
-					  .withServiceVer(KBaseGeneFamiliesServer.SERVICE_VERSION)
-					  .withMethod(serviceMethod)
-					  .withMethodParams(Arrays.asList(new UObject(inputData)))));
-	try {
-	    long objid = Long.parseLong(id);
-	    data.withObjid(objid);
-	} catch (NumberFormatException ex) {
-	    data.withName(id);
-	}
-	return DomainSearchTask.getRefFromObjectInfo(storage.saveObjects(token, new SaveObjectsParams().withWorkspace(ws).withObjects(Arrays.asList(data))).get(0));
+	return DomainSearchTask.getRefFromObjectInfo(StreamingSaver.saveObject(storage, token, ws, id,
+								     DomainSearchTask.domainAnnotationWsType,
+								     getProvenance(inputData, serviceMethod),
+								     new StreamingSaver.DataWriter() {
+									 @Override
+									 public Map<String,String> writeData(JsonGenerator jgen) throws IOException {
+									     Map<String,String> meta = annRes.writeAnnotation(jgen);
+									     meta.putAll(annRes.getHits().getStatistics().getSummary());
+									     return meta;
+									 }
+								     }));
+    }
+
+    private static List<ProvenanceAction> getProvenance(Object inputData, String serviceMethod) {
+	return Arrays.asList(new ProvenanceAction()
+			     .withDescription("Domain annotation was calculated with rps-blast/hmmer")
+			     .withService(KBaseGeneFamiliesServer.SERVICE_REGISTERED_NAME)
+			     .withServiceVer(KBaseGeneFamiliesServer.SERVICE_VERSION)
+			     .withMethod(serviceMethod)
+			     .withMethodParams(Arrays.asList(new UObject(inputData))));
     }
 }
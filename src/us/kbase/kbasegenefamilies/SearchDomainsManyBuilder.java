@@ -0,0 +1,56 @@
+package us.kbase.kbasegenefamilies;
+
+import java.io.File;
+import java.util.List;
+
+public class SearchDomainsManyBuilder extends DefaultTaskBuilder<SearchDomainsManyParams> {
+
+    public SearchDomainsManyBuilder() {
+    }
+
+    public SearchDomainsManyBuilder(File tempDir, ObjectStorage objectStorage) {
+	this.tempDir = tempDir;
+	this.storage = objectStorage;
+    }
+
+    @Override
+	public Class<SearchDomainsManyParams> getInputDataType() {
+	return SearchDomainsManyParams.class;
+    }
+
+    /**
+       The job reports the annotation of the first genome; the others
+       are saved in the same workspace, under the ids given.
+    */
+    @Override
+	public String getOutRef(SearchDomainsManyParams inputData) {
+	return inputData.getOutWorkspace() + "/" + inputData.getOutResultIds().get(0);
+    }
+
+    @Override
+	public String getTaskDescription() {
+	return "Search domains for a batch of genomes";
+    }
+
+    @Override
+	public void run(String token, SearchDomainsManyParams inputData, String jobId,
+			String outRef) throws Exception {
+	List<String> genomes = inputData.getGenomes();
+	List<String> ids = inputData.getOutResultIds();
+	if (genomes == null || genomes.isEmpty())
+	    throw new IllegalArgumentException("No genomes to search");
+	if (ids == null || ids.size() != genomes.size())
+	    throw new IllegalArgumentException("There should be one output id per genome");
+	DomainSearchTask dst = new DomainSearchTask(tempDir, storage);
+	MemoryAdmission.Ticket ticket = SearchDomainsBuilder.admit(dst, token, inputData.getDmsRef(), genomes);
+	try {
+	    List<DomainSearchResult> res = dst.searchDomainsMany(token, inputData.getDmsRef(), genomes);
+	    for (int i = 0; i < res.size(); i++)
+		SearchDomainsBuilder.saveAnnotation(storage, token, inputData.getOutWorkspace(), ids.get(i),
+						    res.get(i), inputData, "search_domains_many");
+	}
+	finally {
+	    ticket.release();
+	}
+    }
+}
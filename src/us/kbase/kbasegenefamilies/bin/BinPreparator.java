@@ -11,7 +11,7 @@ import org.apache.commons.io.IOUtils;
 import us.kbase.common.utils.CorrectProcess;
 
 public class BinPreparator {
-    public static File prepareBin(File dir, String programName) throws Exception {
+    public static synchronized File prepareBin(File dir, String programName) throws Exception {
 	File ret = new File(dir, programName);
 	if (ret.exists())
 	    return ret;
@@ -0,0 +1,66 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.CoreBudget;
+import us.kbase.kbasegenefamilies.DomainSearchTask;
+
+/**
+   Tests for the core budget shared by search programs
+*/
+public class CoreBudgetTest {
+    /**
+       allotments should depend on the free cores, and never exceed
+       the budget
+    */
+    @Test
+    public void allotments() throws Exception {
+        CoreBudget budget = new CoreBudget(8);
+        assertEquals(6, budget.acquire(6));
+        assertEquals(2, budget.acquire(6));
+        assertEquals(0, budget.getFreeCores());
+        budget.release(6);
+        assertEquals(6, budget.getFreeCores());
+        assertEquals(6, budget.acquire(100));
+    }
+
+    /**
+       a run should wait while no core is free
+    */
+    @Test
+    public void waitsForCores() throws Exception {
+        final CoreBudget budget = new CoreBudget(2);
+        final int taken = budget.acquire(2);
+        final AtomicInteger got = new AtomicInteger(-1);
+        Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        got.set(budget.acquire(1));
+                    }
+                    catch (InterruptedException ignore) {}
+                }
+            };
+        t.start();
+        Thread.sleep(100);
+        assertEquals(-1, got.get());
+        budget.release(taken);
+        t.join(5000);
+        assertEquals(1, got.get());
+        assertEquals(1, budget.getFreeCores());
+    }
+
+    /**
+       wanted threads should follow proteome size and library type
+    */
+    @Test
+    public void wantedThreads() {
+        assertEquals(1, CoreBudget.getWantedThreads(DomainSearchTask.RPSBLAST_PROGRAM, 1000, 16));
+        assertEquals(2, CoreBudget.getWantedThreads(DomainSearchTask.RPSBLAST_PROGRAM, 1500000, 16));
+        assertEquals(6, CoreBudget.getWantedThreads(DomainSearchTask.HMMSCAN_PROGRAM, 1500000, 16));
+        assertEquals(16, CoreBudget.getWantedThreads(DomainSearchTask.HMMSCAN_PROGRAM, 100000000, 16));
+    }
+}
@@ -0,0 +1,93 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.util.DomTblOutParser;
+
+/**
+   Tests for parsing hmmscan --domtblout output
+*/
+public class DomTblOutParserTest {
+    private static final String HEADER =
+        "#                                                                            --- full sequence --- -------------- this domain -------------   hmm coord   ali coord   env coord\n"+
+        "# target name        accession   tlen query name           accession   qlen   E-value  score  bias   #  of  c-Evalue  i-Evalue  score  bias  from    to  from    to  from    to  acc description of target\n"+
+        "#------------------- ---------- ----- -------------------- ---------- ----- --------- ------ ----- --- --- --------- --------- ------ ----- ----- ----- ----- ----- ----- ----- ---- ---------------------\n";
+
+    /**
+       accession, coordinates, score and i-evalue should be read from
+       the right columns; evalues must match Double.parseDouble
+    */
+    @Test
+    public void parseDomains() throws Exception {
+        String output = HEADER +
+            "ABC_tran             PF00005.22   137 12                   -            300   1.2e-30  104.5   0.1   1   2   3.4e-20   2.2e-16   58.1   0.0     1   137    20   155    20   155 0.95 ABC transporter\n"+
+            "ABC_tran             PF00005.22   137 12                   -            300   1.2e-30  104.5   0.1   2   2   3.4e-10   0.00034   41.0   0.0    10   120   170   290   165   295 0.90 ABC transporter\n"+
+            "TIGR00001            -            50 7                    -            100   2.5e-250  900.0   0.1   1   1   1e-250   2.5e-250   900.0   0.0     1    50     1    50     1    50 0.99 -\n"+
+            "# [ok]\n";
+        final List<String> hits = new ArrayList<String>();
+        final List<Double> evalues = new ArrayList<Double>();
+        DomTblOutParser.processDomTblOutput(new ByteArrayInputStream(output.getBytes("US-ASCII")), new DomTblOutParser.HmmerCallback() {
+                @Override
+                public void next(int query, String modelName, int hmmFrom, int hmmTo,
+                                 int start, int stop, double score, double evalue) throws Exception {
+                    hits.add(query+"/"+modelName+"/"+hmmFrom+"-"+hmmTo+"/"+start+"-"+stop+"/"+score);
+                    evalues.add(evalue);
+                }
+            });
+        assertEquals(3, hits.size());
+        assertEquals("12/PF00005.22/1-137/20-155/58.1", hits.get(0));
+        assertEquals("12/PF00005.22/10-120/170-290/41.0", hits.get(1));
+        assertEquals("7/TIGR00001/1-50/1-50/900.0", hits.get(2));
+        assertEquals(Double.parseDouble("2.2e-16"), evalues.get(0).doubleValue());
+        assertEquals(Double.parseDouble("0.00034"), evalues.get(1).doubleValue());
+        assertEquals(Double.parseDouble("2.5e-250"), evalues.get(2).doubleValue());
+    }
+
+    /**
+       hmmsearch's tables name the sequence as the target and the
+       model as the query
+    */
+    @Test
+    public void parseHmmsearch() throws Exception {
+        String output = HEADER +
+            "12                   -            300 ABC_tran             PF00005.22   137   1.2e-30  104.5   0.1   1   2   3.4e-20   2.2e-16   58.1   0.0     1   137    20   155    20   155 0.95 -\n"+
+            "7                    -            100 TIGR00001            -             50   2.5e-250  900.0   0.1   1   1   1e-250   2.5e-250   900.0   0.0     1    50     1    50     1    50 0.99 -\n"+
+            "# [ok]\n";
+        final List<String> hits = new ArrayList<String>();
+        DomTblOutParser.processHmmsearchDomTblOutput(new ByteArrayInputStream(output.getBytes("US-ASCII")), new DomTblOutParser.HmmerCallback() {
+                @Override
+                public void next(int query, String modelName, int hmmFrom, int hmmTo,
+                                 int start, int stop, double score, double evalue) throws Exception {
+                    hits.add(query+"/"+modelName+"/"+hmmFrom+"-"+hmmTo+"/"+start+"-"+stop+"/"+score+"/"+evalue);
+                }
+            });
+        assertEquals(2, hits.size());
+        assertEquals("12/PF00005.22/1-137/20-155/58.1/2.2E-16", hits.get(0));
+        assertEquals("7/TIGR00001/1-50/1-50/900.0/2.5E-250", hits.get(1));
+    }
+
+    /**
+       lines longer than the read buffer should still parse
+    */
+    @Test
+    public void longLines() throws Exception {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            description.append('x');
+        String output = "m1 PF1 10 3 - 10 1e-5 10.0 0.0 1 1 1e-5 1e-5 10.0 0.0 1 10 1 10 1 10 0.9 " + description + "\n"+
+            "m2 PF2 10 4 - 10 1e-5 10.0 0.0 1 1 1e-5 1e-5 10.0 0.0 1 10 1 10 1 10 0.9 " + description;
+        final List<String> hits = new ArrayList<String>();
+        DomTblOutParser.processDomTblOutput(new ByteArrayInputStream(output.getBytes("US-ASCII")), new DomTblOutParser.HmmerCallback() {
+                @Override
+                public void next(int query, String modelName, int hmmFrom, int hmmTo,
+                                 int start, int stop, double score, double evalue) throws Exception {
+                    hits.add(query+"/"+modelName);
+                }
+            });
+        assertEquals(Arrays.asList("3/PF1", "4/PF2"), hits);
+    }
+}
@@ -0,0 +1,129 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.DomainHits;
+import us.kbase.kbasegenefamilies.HitStatistics;
+
+/**
+   Tests for the columnar hit store
+*/
+public class DomainHitsTest {
+    /**
+       values should come back as they went in, with models numbered
+       in the order they were first seen
+    */
+    @Test
+    public void storeHits() throws Exception {
+        DomainHits hits = new DomainHits();
+        for (int i = 0; i < 5000; i++)
+            hits.add(i, (i % 2 == 0) ? "PF00005.22" : "COG0001", i + 1, i + 100, 2.2e-16, 58.1, 0.9562043795620438);
+        assertEquals(5000, hits.size());
+        assertEquals(2, hits.getModelCount());
+        assertEquals("PF00005.22", hits.getModelName(hits.getModel(0)));
+        assertEquals("COG0001", hits.getModelName(hits.getModel(4999)));
+        assertEquals(4999, hits.getFeature(4999));
+        assertEquals(5000, hits.getStart(4999));
+        assertEquals(5099, hits.getStop(4999));
+        assertEquals(2.2e-16, hits.getEvalue(4999));
+        assertEquals(58.1, hits.getBitscore(4999));
+        assertEquals(0.9562043795620438, hits.getCoverage(4999));
+    }
+
+    /**
+       merging should group hits by feature, and give the same
+       result whatever order the stores come in
+    */
+    @Test
+    public void merge() throws Exception {
+        DomainHits a = new DomainHits();
+        a.add(3, "PF2", 40, 90, 1e-5, 10.0, 0.5);
+        a.add(1, "PF2", 5, 50, 1e-6, 20.0, 0.25);
+        DomainHits b = new DomainHits();
+        b.add(3, "COG1", 7, 70, 1e-7, 30.0, 0.75);
+        b.add(3, "PF2", 10, 30, 1e-8, 40.0, 0.2);
+        DomainHits c = new DomainHits();
+        String expected = describe(DomainHits.merge(Arrays.asList(a, b, c), 1));
+        assertEquals(describe(DomainHits.merge(Arrays.asList(c, b, a), 1)), expected);
+        assertEquals("1 PF2 5-50;3 COG1 7-70;3 PF2 10-30;3 PF2 40-90;", expected);
+        DomainHits merged = DomainHits.merge(Arrays.asList(b, a), 4);
+        assertEquals("COG1", merged.getModelName(0));
+        assertEquals(20.0, merged.getBitscore(0));
+        assertEquals(0, DomainHits.merge(Arrays.asList(c), 1).size());
+    }
+
+    /**
+       stores large enough to be ordered on several threads should
+       merge as they do on one
+    */
+    @Test
+    public void mergeParallel() throws Exception {
+        List<DomainHits> parts = new ArrayList<DomainHits>();
+        Random random = new Random(1234);
+        for (int p = 0; p < 5; p++) {
+            DomainHits part = new DomainHits();
+            for (int i = 0; i < 60000; i++)
+                part.add(random.nextInt(20000), "M" + random.nextInt(50), random.nextInt(500), 600, 1e-5, 10.0, 0.5);
+            parts.add(part);
+        }
+        DomainHits serial = DomainHits.merge(parts, 1);
+        Collections.reverse(parts);
+        DomainHits parallel = DomainHits.merge(parts, 4);
+        assertEquals(300000, parallel.size());
+        assertEquals(describe(serial), describe(parallel));
+    }
+
+    /**
+       statistics should be counted as hits are added, and survive
+       merging
+    */
+    @Test
+    public void statistics() throws Exception {
+        DomainHits a = new DomainHits();
+        a.add(3, "PF2", 40, 90, 1e-5, 10.0, 0.55);
+        a.add(3, "PF2", 5, 50, 0.5, 20.0, 1.0);
+        DomainHits b = new DomainHits();
+        b.add(7, "COG1", 7, 70, 1e-30, 30.0, 0.05);
+        b.add(3, "COG1", 10, 30, 0.0, 40.0, 0.2);
+        HitStatistics stats = a.getStatistics();
+        assertEquals(1, stats.getAnnotatedFeatureCount());
+        assertEquals(1, stats.getModelCount());
+
+        DomainHits merged = DomainHits.merge(Arrays.asList(a, b), 1);
+        merged.getStatistics().setLibraryHits("Pfam", a.size());
+        merged.getStatistics().setLibraryHits("COGs", b.size());
+        merged.getStatistics().setLibraryEngine("Pfam", "hmmscan");
+        merged.getStatistics().setLibraryEngine("COGs", "rpsblast-2.2.30");
+        stats = merged.getStatistics();
+        assertEquals(2, stats.getAnnotatedFeatureCount());
+        assertEquals(2, stats.getModelCount());
+        assertEquals(4, stats.getHitCount());
+        long[] evalues = stats.getEvalueHistogram();
+        assertEquals(1, evalues[0]);
+        assertEquals(1, evalues[5]);
+        assertEquals(2, evalues[HitStatistics.EVALUE_BUCKETS - 1]);
+        long[] coverages = stats.getCoverageHistogram();
+        assertEquals(1, coverages[0]);
+        assertEquals(1, coverages[2]);
+        assertEquals(1, coverages[5]);
+        assertEquals(1, coverages[9]);
+        assertEquals("2", stats.getMetadata().get("annotated_domains"));
+        assertEquals("2", stats.getMetadata().get("annotated_features"));
+        assertEquals("4", stats.getSummary().get("domain_hits"));
+        assertEquals("COGs:2,Pfam:2", stats.getSummary().get("library_hits"));
+        assertEquals("COGs:rpsblast-2.2.30,Pfam:hmmscan", stats.getSummary().get("search_engines"));
+        assertEquals("1,0,1,0,0,1,0,0,0,1", stats.getSummary().get("coverage_histogram"));
+    }
+
+    private static String describe(DomainHits hits) {
+        StringBuilder rv = new StringBuilder();
+        for (int i = 0; i < hits.size(); i++)
+            rv.append(hits.getFeature(i)).append(' ')
+                .append(hits.getModelName(hits.getModel(i))).append(' ')
+                .append(hits.getStart(i)).append('-').append(hits.getStop(i)).append(';');
+        return rv.toString();
+    }
+}
@@ -0,0 +1,180 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.Tuple11;
+import us.kbase.common.service.UObject;
+import us.kbase.kbasegenefamilies.DomainLibrary;
+import us.kbase.kbasegenefamilies.DomainLibraryCache;
+import us.kbase.kbasegenefamilies.DomainModel;
+import us.kbase.kbasegenefamilies.Handle;
+import us.kbase.kbasegenefamilies.ObjectStorage;
+import us.kbase.kbasegenefamilies.util.StringIntMap;
+import us.kbase.workspace.GetObjectInfoNewParams;
+import us.kbase.workspace.ListObjectsParams;
+import us.kbase.workspace.ObjectData;
+import us.kbase.workspace.ObjectIdentity;
+import us.kbase.workspace.SaveObjectsParams;
+import us.kbase.workspace.SubObjectIdentity;
+
+/**
+   Tests for the cached index of domain library model lengths
+*/
+public class DomainLibraryCacheTest {
+    /**
+       the map should keep every key through growing, and replace
+       values of keys already there
+    */
+    @Test
+    public void stringIntMap() throws Exception {
+        StringIntMap map = new StringIntMap();
+        for (int i = 0; i < 50000; i++)
+            map.put("PF" + i, i);
+        map.put("PF7", 70);
+        assertEquals(50000, map.size());
+        assertEquals(70, map.get("PF7", -1));
+        assertEquals(49999, map.get("PF49999", -1));
+        assertEquals(-1, map.get("COG1", -1));
+        assertTrue(map.containsKey("PF0"));
+        assertFalse(map.containsKey("PF50000"));
+    }
+
+    /**
+       a library read in full should be indexed by accession, and
+       kept without its models
+    */
+    @Test
+    public void fromLibrary() throws Exception {
+        Map<String,DomainModel> domains = new HashMap<String,DomainModel>();
+        domains.put("COG0001", new DomainModel().withAccession("COG0001").withLength(432L));
+        domains.put("COG0002", new DomainModel().withAccession("COG0002").withLength(98L));
+        DomainLibrary dl = new DomainLibrary()
+            .withId("COGs-CDD-3.12")
+            .withProgram("rpsblast-2.2.30")
+            .withVersion("3.12")
+            .withLibraryFiles(Arrays.asList(new Handle().withFileName("Cog")))
+            .withDomains(domains);
+        DomainLibraryCache.Library library = DomainLibraryCache.fromLibrary(dl);
+        assertEquals(2, library.getModelCount());
+        assertEquals(432, library.getModelLength("COG0001"));
+        assertEquals(98, library.getModelLength("COG0002"));
+        assertEquals(-1, library.getModelLength("PF00001"));
+        assertNull(library.getLibrary().getDomains());
+        assertEquals("rpsblast-2.2.30", library.getLibrary().getProgram());
+        assertEquals("Cog", library.getLibrary().getLibraryFiles().get(0).getFileName());
+    }
+
+    /**
+       Stand-in workspace holding one set, 1/1/1, and one library,
+       1/2/3, which only the token "reader" may read; subset fetches
+       are counted
+    */
+    private static class PrivateStorage implements ObjectStorage {
+        final AtomicInteger subsets = new AtomicInteger();
+
+        @Override
+        public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> getObjectInfoNew(
+                String authToken, GetObjectInfoNewParams params) throws Exception {
+            if (!"reader".equals(authToken))
+                throw new JsonClientException("Object is not readable");
+            List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> rv =
+                new ArrayList<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>>();
+            for (ObjectIdentity id : params.getObjects())
+                rv.add(info(id.getRef().equals("set") || id.getRef().equals("1/1/1") ? "1/1/1" : "1/2/3"));
+            return rv;
+        }
+
+        @Override
+        public List<ObjectData> getObjectSubset(String authToken,
+                                                List<SubObjectIdentity> objectIds) throws Exception {
+            subsets.incrementAndGet();
+            List<ObjectData> rv = new ArrayList<ObjectData>();
+            for (SubObjectIdentity id : objectIds) {
+                Map<String,Object> data = new HashMap<String,Object>();
+                if (id.getRef().equals("1/1/1")) {
+                    data.put("domain_libs", Collections.singletonMap("Pfam", "lib"));
+                }
+                else {
+                    data.put("id", "Pfam-27.0");
+                    data.put("program", "hmmscan-3.1b1");
+                    data.put("domains", Collections.singletonMap("PF00001", Collections.singletonMap("length", 250)));
+                }
+                rv.add(new ObjectData().withData(new UObject(data)).withInfo(info(id.getRef())));
+            }
+            return rv;
+        }
+
+        private static Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>> info(String ref) {
+            String[] parts = ref.split("/");
+            return new Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>()
+                .withE1(Long.parseLong(parts[1]))
+                .withE5(Long.parseLong(parts[2]))
+                .withE7(Long.parseLong(parts[0]));
+        }
+
+        @Override
+        public List<ObjectData> getObjects(String authToken, List<ObjectIdentity> objectIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>>> saveObjects(
+                String authToken, SaveObjectsParams params) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String, String>>> listObjects(
+                String authToken, ListObjectsParams params) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getUrl() {
+            return null;
+        }
+
+        @Override
+        public <T> T callStreaming(String authToken, StreamingCall<T> call) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+       cached sets and libraries should be read once, but still only
+       be given to tokens that can read them
+    */
+    @Test
+    public void readableOnly() throws Exception {
+        DomainLibraryCache.clear();
+        PrivateStorage storage = new PrivateStorage();
+        assertEquals("lib", DomainLibraryCache.getDomainLibs(storage, "reader", "set").get("Pfam"));
+        DomainLibraryCache.Library library = DomainLibraryCache.getLibrary(storage, "reader", "lib");
+        assertEquals(250, library.getModelLength("PF00001"));
+        assertEquals("hmmscan-3.1b1", library.getLibrary().getProgram());
+        assertEquals(2, storage.subsets.get());
+        assertSame(library, DomainLibraryCache.getLibrary(storage, "reader", "1/2/3"));
+        assertEquals("lib", DomainLibraryCache.getDomainLibs(storage, "reader", "1/1/1").get("Pfam"));
+        assertEquals(2, storage.subsets.get());
+        for (String token : Arrays.asList("other", null)) {
+            try {
+                DomainLibraryCache.getLibrary(storage, token, "1/2/3");
+                fail("cached library given to a token that can't read it");
+            }
+            catch (JsonClientException e) {
+            }
+            try {
+                DomainLibraryCache.getDomainLibs(storage, token, "1/1/1");
+                fail("cached set given to a token that can't read it");
+            }
+            catch (JsonClientException e) {
+            }
+        }
+        DomainLibraryCache.clear();
+    }
+}
@@ -0,0 +1,87 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.DomainAnnotation;
+import us.kbase.kbasegenefamilies.DomainHits;
+import us.kbase.kbasegenefamilies.DomainSearchTask;
+import us.kbase.kbasegenefamilies.FeatureLayout;
+
+/**
+   Tests for searching batches of genomes together
+*/
+public class DomainSearchTaskTest {
+    private static FeatureLayout layout(String genomeRef, String... seqs) throws Exception {
+        FeatureLayout rv = new FeatureLayout(genomeRef, null);
+        for (int i = 0; i < seqs.length; i++)
+            rv.addFeature(genomeRef + "_f" + i, "c1", 100 * (i + 1), "+", 30, seqs[i]);
+        // finish() refuses a genome without proteins
+        if (seqs.length > 0)
+            rv.finish("test", Arrays.asList("c1"), Arrays.asList(10000L));
+        return rv;
+    }
+
+    /**
+       hits of a batch should go back to their own genomes, past
+       a genome with no features and one whose hits were cached
+    */
+    @Test
+    public void splitHits() throws Exception {
+        List<FeatureLayout> layouts = Arrays.asList(layout("1/1/1", "MKVL", "MSTN"),
+                                                    layout("1/2/1"),
+                                                    layout("1/3/1", "MAAA", "MCCC", "MDDD"),
+                                                    layout("1/4/1", "MEEE", "MFFF"));
+        DomainHits cached = new DomainHits();
+        cached.add(2, "PF9", 1, 4, 1e-9, 50.0, 1.0);
+        DomainHits[] genomeHits = new DomainHits[layouts.size()];
+        genomeHits[2] = cached;
+
+        int[] offsets = DomainSearchTask.getQueryOffsets(layouts, genomeHits);
+        assertEquals("[0, 2, -1, 2]", Arrays.toString(offsets));
+
+        DomainHits hits = new DomainHits();
+        hits.add(1, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        hits.add(2, "PF2", 2, 4, 1e-6, 20.0, 0.25);
+        hits.add(3, "PF3", 1, 2, 1e-7, 30.0, 0.75);
+        DomainSearchTask.splitHits(hits, layouts, offsets, genomeHits);
+
+        assertEquals(1, genomeHits[0].size());
+        assertEquals(1, genomeHits[0].getFeature(0));
+        assertEquals(0, genomeHits[1].size());
+        assertSame(cached, genomeHits[2]);
+        assertEquals(2, genomeHits[3].size());
+        assertEquals(0, genomeHits[3].getFeature(0));
+        assertEquals("PF2", genomeHits[3].getModelName(genomeHits[3].getModel(0)));
+        assertEquals(1, genomeHits[3].getFeature(1));
+
+        // every genome's hits fit its own features
+        for (int i = 0; i < layouts.size(); i++) {
+            if (layouts.get(i).getFeatureCount() == 0)
+                continue;
+            DomainAnnotation ann = layouts.get(i).toAnnotation("4/5/6", layouts.get(i).addCopies(genomeHits[i]));
+            assertEquals(layouts.get(i).getFeatureCount(), ann.getFeatureToContigAndIndex().size());
+        }
+    }
+
+    /**
+       a hit past the last genome's features should be refused
+    */
+    @Test
+    public void unknownQuery() throws Exception {
+        List<FeatureLayout> layouts = Arrays.asList(layout("1/1/1", "MKVL"),
+                                                    layout("1/2/1"));
+        DomainHits[] genomeHits = new DomainHits[layouts.size()];
+        int[] offsets = DomainSearchTask.getQueryOffsets(layouts, genomeHits);
+        DomainHits hits = new DomainHits();
+        hits.add(1, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        try {
+            DomainSearchTask.splitHits(hits, layouts, offsets, genomeHits);
+            fail("no genome has query 1");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.StringWriter;
+import java.util.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.common.service.Tuple2;
+import us.kbase.common.service.Tuple4;
+import us.kbase.common.service.Tuple5;
+import us.kbase.kbasegenefamilies.DomainAnnotation;
+import us.kbase.kbasegenefamilies.DomainHits;
+import us.kbase.kbasegenefamilies.DomainSearchTask;
+import us.kbase.kbasegenefamilies.FeatureLayout;
+import us.kbase.kbasegenefamilies.GenomeProjection;
+import us.kbase.kbasegenomes.Feature;
+import us.kbase.kbasegenomes.Genome;
+
+/**
+   Tests for laying out features and writing annotations
+*/
+public class FeatureLayoutTest {
+    private static Feature feature(String id, String contig, long start, String dir, long len, String prot) {
+        return new Feature()
+            .withId(id)
+            .withProteinTranslation(prot)
+            .withLocation(Arrays.asList(new Tuple4<String, Long, String, Long>()
+                                        .withE1(contig).withE2(start).withE3(dir).withE4(len)));
+    }
+
+    private static GenomeProjection.ProjectedFeature projected(Feature feat) {
+        return new GenomeProjection.ProjectedFeature()
+            .withId(feat.getId())
+            .withLocation(feat.getLocation())
+            .withProteinTranslation(feat.getProteinTranslation());
+    }
+
+    /**
+       the streamed annotation should hold the same data, in the
+       same order, as the one built in memory, and give the same
+       metadata
+    */
+    @Test
+    public void streamedMatchesBuilt() throws Exception {
+        Genome genome = new Genome()
+            .withScientificName("test")
+            .withContigIds(Arrays.asList("c1", "c2"))
+            .withContigLengths(Arrays.asList(10000L, 5000L))
+            .withFeatures(Arrays.asList(feature("f1", "c2", 300, "+", 90, "MKVLAAGIT"),
+                                        feature("f2", "c1", 900, "-", 60, "MSTNPKPQRK"),
+                                        feature("f3", "c1", 100, "+", 30, null),
+                                        feature("f4", "c1", 50, "+", 90, "MAAAA")));
+        DomainHits hits = new DomainHits();
+        hits.add(1, "PF2", 3, 9, 1e-10, 40.5, 0.5);
+        hits.add(0, "PF1", 1, 5, 2.5e-7, 20.0, 0.25);
+        hits.add(1, "COG1", 2, 8, 3e-12, 50.0, 1.0);
+        hits.add(1, "PF2", 1, 2, 1e-3, 10.0, 0.125);
+
+        StringWriter sw = new StringWriter();
+        ObjectMapper mapper = new ObjectMapper();
+        JsonGenerator jgen = mapper.getFactory().createGenerator(sw);
+        Map<String,String> meta = new FeatureLayout(genome, "1/2/3").writeAnnotation(jgen, "4/5/6", hits);
+        jgen.close();
+        DomainAnnotation built = new FeatureLayout(genome, "1/2/3").toAnnotation("4/5/6", hits);
+        assertEquals(DomainSearchTask.getMetadata(built), meta);
+
+        JsonNode streamed = mapper.readTree(sw.toString());
+        assertEquals("1/2/3", streamed.get("genome_ref").asText());
+        assertEquals("4/5/6", streamed.get("used_dms_ref").asText());
+        JsonNode data = streamed.get("data");
+        assertEquals(built.getData().keySet(), toSet(data.fieldNames()));
+        for (String contig : built.getData().keySet()) {
+            List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> prots = built.getData().get(contig);
+            assertEquals(prots.size(), data.get(contig).size());
+            for (int i = 0; i < prots.size(); i++) {
+                JsonNode prot = data.get(contig).get(i);
+                assertEquals(prots.get(i).getE1(), prot.get(0).asText());
+                assertEquals((long)prots.get(i).getE2(), prot.get(1).asLong());
+                assertEquals((long)prots.get(i).getE3(), prot.get(2).asLong());
+                assertEquals((long)prots.get(i).getE4(), prot.get(3).asLong());
+                Map<String, List<Tuple5<Long, Long, Double, Double, Double>>> domains = prots.get(i).getE5();
+                assertEquals(new ArrayList<String>(domains.keySet()), new ArrayList<String>(toSet(prot.get(4).fieldNames())));
+                for (String model : domains.keySet()) {
+                    List<Tuple5<Long, Long, Double, Double, Double>> places = domains.get(model);
+                    JsonNode streamedPlaces = prot.get(4).get(model);
+                    assertEquals(places.size(), streamedPlaces.size());
+                    for (int j = 0; j < places.size(); j++) {
+                        assertEquals((long)places.get(j).getE1(), streamedPlaces.get(j).get(0).asLong());
+                        assertEquals((long)places.get(j).getE2(), streamedPlaces.get(j).get(1).asLong());
+                        assertEquals(places.get(j).getE3(), streamedPlaces.get(j).get(2).asDouble());
+                        assertEquals(places.get(j).getE4(), streamedPlaces.get(j).get(3).asDouble());
+                        assertEquals(places.get(j).getE5(), streamedPlaces.get(j).get(4).asDouble());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Tuple2<Long, Long>> entry : built.getContigToSizeAndFeatureCount().entrySet()) {
+            JsonNode size = streamed.get("contig_to_size_and_feature_count").get(entry.getKey());
+            assertEquals((long)entry.getValue().getE1(), size.get(0).asLong());
+            assertEquals((long)entry.getValue().getE2(), size.get(1).asLong());
+        }
+        for (Map.Entry<String, Tuple2<String, Long>> entry : built.getFeatureToContigAndIndex().entrySet()) {
+            JsonNode index = streamed.get("feature_to_contig_and_index").get(entry.getKey());
+            assertEquals(entry.getValue().getE1(), index.get(0).asText());
+            assertEquals((long)entry.getValue().getE2(), index.get(1).asLong());
+        }
+        assertEquals("2", meta.get("annotated_domains"));
+        assertEquals("3", meta.get("annotated_features"));
+    }
+
+    /**
+       identical sequences should be searched once, and their hits
+       copied to every feature that has them
+    */
+    @Test
+    public void duplicateSequences() throws Exception {
+        Genome genome = new Genome()
+            .withScientificName("test")
+            .withContigIds(Arrays.asList("c1"))
+            .withContigLengths(Arrays.asList(10000L))
+            .withFeatures(Arrays.asList(feature("f1", "c1", 100, "+", 30, "MKVL"),
+                                        feature("f2", "c1", 200, "+", 30, "MSTN"),
+                                        feature("f3", "c1", 300, "+", 30, "MKVL"),
+                                        feature("f4", "c1", 400, "+", 30, "MKVL")));
+        FeatureLayout layout = new FeatureLayout(genome, "1/2/3");
+        assertEquals(Arrays.asList(0, 1), layout.getProteinPositions());
+        assertEquals(Arrays.asList("MKVL", "MSTN"), layout.getProteinSequences());
+        assertEquals(8, layout.getTotalResidues());
+        assertEquals(2, layout.getCopyCount());
+
+        DomainHits hits = new DomainHits();
+        hits.add(0, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        hits.add(1, "PF2", 2, 4, 1e-6, 20.0, 0.25);
+        DomainAnnotation ann = layout.toAnnotation("4/5/6", layout.addCopies(hits));
+        List<Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>>> prots = ann.getData().get("c1");
+        assertEquals(Collections.singleton("PF1"), prots.get(0).getE5().keySet());
+        assertEquals(Collections.singleton("PF2"), prots.get(1).getE5().keySet());
+        assertEquals(Collections.singleton("PF1"), prots.get(2).getE5().keySet());
+        assertEquals(Collections.singleton("PF1"), prots.get(3).getE5().keySet());
+        assertEquals(1L, (long)prots.get(3).getE5().get("PF1").get(0).getE1());
+    }
+
+    /**
+       a projection of a genome should lay out the same as the
+       genome itself
+    */
+    @Test
+    public void projection() throws Exception {
+        GenomeProjection projection = new GenomeProjection()
+            .withScientificName("test")
+            .withContigIds(Arrays.asList("c1"))
+            .withContigLengths(Arrays.asList(10000L))
+            .withFeatures(Arrays.asList(projected(feature("f1", "c1", 100, "+", 30, "MKVL")),
+                                        projected(feature("f2", "c1", 250, "-", 30, "MSTN"))));
+        Genome genome = new Genome()
+            .withScientificName("test")
+            .withContigIds(Arrays.asList("c1"))
+            .withContigLengths(Arrays.asList(10000L))
+            .withFeatures(Arrays.asList(feature("f1", "c1", 100, "+", 30, "MKVL"),
+                                        feature("f2", "c1", 250, "-", 30, "MSTN")));
+        DomainHits hits = new DomainHits();
+        hits.add(1, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        DomainAnnotation fromProjection = new FeatureLayout(projection, "1/2/3").toAnnotation("4/5/6", hits);
+        DomainAnnotation fromGenome = new FeatureLayout(genome, "1/2/3").toAnnotation("4/5/6", hits);
+        assertEquals(fromGenome.getData().toString(), fromProjection.getData().toString());
+        assertEquals(fromGenome.getFeatureToContigAndIndex().toString(), fromProjection.getFeatureToContigAndIndex().toString());
+        assertEquals(fromGenome.getContigToSizeAndFeatureCount().toString(), fromProjection.getContigToSizeAndFeatureCount().toString());
+    }
+
+    /**
+       features should be sorted by start within their contig,
+       keeping the genome's order for equal starts, and a repeated
+       feature id should be indexed by its last feature
+    */
+    @Test
+    public void contigOrder() throws Exception {
+        FeatureLayout layout = new FeatureLayout("1/2/3", null);
+        layout.addFeature("f1", "c2", 500, "+", 30, "MKVL");
+        layout.addFeature("f2", "c1", 300, "+", 30, "MSTN");
+        layout.addFeature("f3", "c1", 100, "+", 30, null);
+        layout.addFeature("f4", "c1", 300, "+", 30, "MAAA");
+        layout.addFeature("f1", "c1", 200, "+", 30, "MCCC");
+        layout.finish("test", Arrays.asList("c1", "c2"), Arrays.asList(1000L, 2000L));
+        DomainHits hits = new DomainHits();
+        hits.add(4, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        DomainAnnotation ann = layout.toAnnotation("4/5/6", hits);
+        assertEquals(Arrays.asList("c1", "c2"), new ArrayList<String>(ann.getData().keySet()));
+        List<String> c1 = new ArrayList<String>();
+        for (Tuple5<String, Long, Long, Long, Map<String, List<Tuple5<Long, Long, Double, Double, Double>>>> prot : ann.getData().get("c1"))
+            c1.add(prot.getE1());
+        assertEquals(Arrays.asList("f3", "f1", "f2", "f4"), c1);
+        assertEquals(Collections.singleton("PF1"), ann.getData().get("c1").get(1).getE5().keySet());
+        assertEquals("c1", ann.getFeatureToContigAndIndex().get("f1").getE1());
+        assertEquals(1L, (long)ann.getFeatureToContigAndIndex().get("f1").getE2());
+        assertEquals(3L, (long)ann.getFeatureToContigAndIndex().get("f4").getE2());
+        assertEquals(4L, (long)ann.getContigToSizeAndFeatureCount().get("c1").getE2());
+        assertEquals(2000L, (long)ann.getContigToSizeAndFeatureCount().get("c2").getE1());
+    }
+
+    private static Set<String> toSet(Iterator<String> it) {
+        Set<String> rv = new LinkedHashSet<String>();
+        while (it.hasNext())
+            rv.add(it.next());
+        return rv;
+    }
+}
@@ -0,0 +1,52 @@
+package us.kbase.kbasegenefamilies.test;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.HmmerEngineSelector;
+
+/**
+   Tests for choosing between hmmscan and hmmsearch
+*/
+public class HmmerEngineSelectorTest {
+    /**
+       hmmsearch should be chosen only for enough sequences, both
+       overall and per model
+    */
+    @Test
+    public void choose() throws Exception {
+        HmmerEngineSelector selector = new HmmerEngineSelector(HmmerEngineSelector.AUTO, 5000, 1.0);
+        assertEquals(HmmerEngineSelector.HMMSCAN, selector.choose(1000, 100));
+        assertEquals(HmmerEngineSelector.HMMSCAN, selector.choose(10000, 16000));
+        assertEquals(HmmerEngineSelector.HMMSEARCH, selector.choose(10000, 4500));
+        assertEquals(HmmerEngineSelector.HMMSEARCH, selector.choose(5000, 5000));
+        assertEquals(HmmerEngineSelector.AUTO, selector.getEngine());
+        selector = new HmmerEngineSelector(HmmerEngineSelector.HMMSCAN, 5000, 1.0);
+        assertEquals(HmmerEngineSelector.HMMSCAN, selector.choose(100000, 10));
+        selector = new HmmerEngineSelector(HmmerEngineSelector.HMMSEARCH, 5000, 1.0);
+        assertEquals(HmmerEngineSelector.HMMSEARCH, selector.choose(1, 10));
+        try {
+            new HmmerEngineSelector("phmmer", 5000, 1.0);
+            fail("unknown engine");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+       timings should be totalled per program
+    */
+    @Test
+    public void record() throws Exception {
+        HmmerEngineSelector selector = new HmmerEngineSelector(HmmerEngineSelector.AUTO, 5000, 1.0);
+        selector.record(HmmerEngineSelector.HMMSEARCH, "Pfam", 6000, 4000, 4, 1000);
+        selector.record(HmmerEngineSelector.HMMSEARCH, "Pfam", 7000, 4000, 4, 500);
+        selector.record(HmmerEngineSelector.HMMSCAN, "TIGRFAMs", 100, 4000, 1, 200);
+        assertEquals(2, selector.getRunCount(HmmerEngineSelector.HMMSEARCH));
+        assertEquals(1500, selector.getMillis(HmmerEngineSelector.HMMSEARCH));
+        assertEquals(13000, selector.getSequences(HmmerEngineSelector.HMMSEARCH));
+        assertEquals(52000000L, selector.getComparisons(HmmerEngineSelector.HMMSEARCH));
+        assertEquals(1, selector.getRunCount(HmmerEngineSelector.HMMSCAN));
+        assertEquals(0, selector.getRunCount(HmmerEngineSelector.AUTO));
+    }
+}
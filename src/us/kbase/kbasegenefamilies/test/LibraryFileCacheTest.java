@@ -0,0 +1,147 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import us.kbase.kbasegenefamilies.LibraryFileCache;
+import us.kbase.kbasegenefamilies.util.RangedDownloader;
+
+/**
+   Tests for the library file cache, against the local stand-in for
+   Shock from RangedDownloaderTest
+*/
+public class LibraryFileCacheTest {
+    private final TempDirs tempDirs = new TempDirs();
+
+    @After
+    public void deleteTempDirs() {
+        tempDirs.deleteAll();
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        StringBuilder rv = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(data))
+            rv.append(String.format("%02x", b & 0xff));
+        return rv.toString();
+    }
+
+    /**
+       a download that fails its checks should leave neither an
+       entry nor a partial file, and the next request should fetch
+       it again
+    */
+    @Test
+    public void rejectedDownload() throws Exception {
+        byte[] data = RangedDownloaderTest.makeData(50000);
+        RangedDownloaderTest.NodeHandler handler = new RangedDownloaderTest.NodeHandler(data, Collections.<Long>emptySet());
+        HttpServer server = RangedDownloaderTest.startServer(handler);
+        try {
+            File dir = tempDirs.create("library_cache");
+            LibraryFileCache cache = new LibraryFileCache(dir, 0, new RangedDownloader(RangedDownloaderTest.getUrl(server), null, 2, 16384));
+            String wrongMd5 = md5(new byte[] {1});
+            try {
+                cache.getFile("node1", data.length, wrongMd5);
+                fail("MD5 doesn't match");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage().contains("expected " + wrongMd5));
+            }
+            assertEquals(0, dir.listFiles().length);
+
+            File f = cache.getFile("node1", data.length, md5(data));
+            assertTrue(Arrays.equals(data, Files.readAllBytes(f.toPath())));
+            assertEquals(1, dir.listFiles().length);
+            cache.release(f);
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       concurrent requests for one entry should share a single
+       download
+    */
+    @Test
+    public void sharedDownload() throws Exception {
+        byte[] data = RangedDownloaderTest.makeData(50000);
+        RangedDownloaderTest.NodeHandler handler = new RangedDownloaderTest.NodeHandler(data, Collections.<Long>emptySet());
+        handler.delayMillis = 300;
+        HttpServer server = RangedDownloaderTest.startServer(handler);
+        try {
+            final LibraryFileCache cache = new LibraryFileCache(tempDirs.create("library_cache"), 0,
+                                                                new RangedDownloader(RangedDownloaderTest.getUrl(server), null, 1, data.length));
+            final String md5 = md5(data);
+            final int size = data.length;
+            List<Callable<File>> jobs = new ArrayList<Callable<File>>();
+            for (int i = 0; i < 4; i++)
+                jobs.add(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            return cache.getFile("node1", size, md5);
+                        }
+                    });
+            ExecutorService pool = Executors.newFixedThreadPool(jobs.size());
+            try {
+                Set<File> files = new HashSet<File>();
+                for (Future<File> f : pool.invokeAll(jobs))
+                    files.add(f.get());
+                assertEquals(1, files.size());
+                assertEquals(1, handler.served.size());
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       least recently used entries should be evicted first, but not
+       while they're pinned
+    */
+    @Test
+    public void eviction() throws Exception {
+        byte[] data = RangedDownloaderTest.makeData(10000);
+        HttpServer server = RangedDownloaderTest.startServer(new RangedDownloaderTest.NodeHandler(data, Collections.<Long>emptySet()));
+        try {
+            LibraryFileCache cache = new LibraryFileCache(tempDirs.create("library_cache"), 25000,
+                                                          new RangedDownloader(RangedDownloaderTest.getUrl(server), null, 1, 16384));
+            String md5 = md5(data);
+            File a = cache.getFile("a", data.length, md5);
+            a.setLastModified(System.currentTimeMillis() - 20000);
+            File b = cache.getFile("b", data.length, md5);
+            b.setLastModified(System.currentTimeMillis() - 10000);
+            cache.release(b);
+
+            // a is older, but still in use
+            File c = cache.getFile("c", data.length, md5);
+            assertTrue(a.exists());
+            assertFalse(b.exists());
+            assertTrue(c.exists());
+
+            // once released, a goes first
+            cache.release(a);
+            cache.release(c);
+            File d = cache.getFile("d", data.length, md5);
+            assertFalse(a.exists());
+            assertTrue(c.exists());
+            assertTrue(d.exists());
+            cache.release(d);
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.LibraryWarmUp;
+import us.kbase.kbasegenefamilies.WarmUpStatus;
+
+/**
+   Tests for the background warm-up of domain libraries
+*/
+public class LibraryWarmUpTest {
+    /**
+       a library that fails shouldn't stop the others, which are
+       still warmed up before the warm-up is reported failed
+    */
+    @Test
+    public void failedLibrary() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        final Set<String> warmed = Collections.synchronizedSet(new TreeSet<String>());
+        LibraryWarmUp warmUp = new LibraryWarmUp();
+        warmUp.start(listing("a", "b", "c"), new LibraryWarmUp.LibraryWarmer() {
+                @Override
+                public void warmUp(String libraryRef) throws Exception {
+                    if (libraryRef.equals("b")) {
+                        failed.countDown();
+                        throw new Exception("no such library");
+                    }
+                    // still fetching when the other library fails
+                    failed.await();
+                    Thread.sleep(100);
+                    warmed.add(libraryRef);
+                }
+            }, 3);
+        warmUp.await();
+        assertEquals(new TreeSet<String>(Arrays.asList("a", "c")), warmed);
+        WarmUpStatus status = warmUp.getStatus();
+        assertEquals(LibraryWarmUp.STATE_FAILED, status.getState());
+        assertEquals(3L, (long)status.getLibrariesTotal());
+        assertEquals(2L, (long)status.getLibrariesReady());
+        assertEquals(Arrays.asList("Library b: no such library"), status.getErrors());
+    }
+
+    /**
+       a job should wait for the library it needs, but not for one
+       the warm-up doesn't fetch
+    */
+    @Test
+    public void awaitLibrary() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Set<String> warmed = Collections.synchronizedSet(new TreeSet<String>());
+        final LibraryWarmUp warmUp = new LibraryWarmUp();
+        assertEquals(LibraryWarmUp.STATE_NOT_STARTED, warmUp.getStatus().getState());
+        warmUp.start(listing("a"), new LibraryWarmUp.LibraryWarmer() {
+                @Override
+                public void warmUp(String libraryRef) throws Exception {
+                    release.await();
+                    warmed.add(libraryRef);
+                }
+            }, 1);
+        warmUp.awaitLibrary("other");
+        assertEquals(LibraryWarmUp.STATE_RUNNING, warmUp.getStatus().getState());
+        // libraries are listed in the background
+        while (warmUp.getStatus().getLibrariesTotal() == 0)
+            Thread.sleep(10);
+        Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    }
+                    catch (InterruptedException ignore) {
+                    }
+                    release.countDown();
+                }
+            };
+        t.start();
+        warmUp.awaitLibrary("a");
+        assertTrue(warmed.contains("a"));
+        warmUp.await();
+        WarmUpStatus status = warmUp.getStatus();
+        assertEquals(LibraryWarmUp.STATE_DONE, status.getState());
+        assertEquals(1L, (long)status.getLibrariesTotal());
+        assertEquals(1L, (long)status.getLibrariesReady());
+        assertTrue(status.getErrors().isEmpty());
+    }
+
+    /**
+       failing to list the libraries should fail the warm-up, and
+       leave nothing for jobs to wait on
+    */
+    @Test
+    public void failedListing() throws Exception {
+        LibraryWarmUp warmUp = new LibraryWarmUp();
+        warmUp.start(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    throw new Exception("no such set");
+                }
+            }, new LibraryWarmUp.LibraryWarmer() {
+                @Override
+                public void warmUp(String libraryRef) throws Exception {
+                    fail("nothing to warm up");
+                }
+            }, 1);
+        warmUp.await();
+        warmUp.awaitLibrary("a");
+        WarmUpStatus status = warmUp.getStatus();
+        assertEquals(LibraryWarmUp.STATE_FAILED, status.getState());
+        assertEquals(0L, (long)status.getLibrariesTotal());
+        assertEquals(Arrays.asList("no such set"), status.getErrors());
+    }
+
+    private static Callable<List<String>> listing(final String... libraryRefs) {
+        return new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return Arrays.asList(libraryRefs);
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.DomainSearchTask;
+import us.kbase.kbasegenefamilies.MemoryAdmission;
+
+/**
+   Tests for admitting jobs by memory footprint
+*/
+public class MemoryAdmissionTest {
+    private static Thread admitLater(final MemoryAdmission admission,
+                                     final long bytes,
+                                     final AtomicReference<MemoryAdmission.Ticket> ticket) {
+        Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ticket.set(admission.admit(bytes));
+                    }
+                    catch (InterruptedException ignore) {}
+                }
+            };
+        t.start();
+        return t;
+    }
+
+    /**
+       a small job should start around a large one that doesn't fit,
+       and the large one should start once there's room
+    */
+    @Test
+    public void backfill() throws Exception {
+        MemoryAdmission admission = new MemoryAdmission(100, 60000);
+        MemoryAdmission.Ticket first = admission.admit(60);
+        AtomicReference<MemoryAdmission.Ticket> large = new AtomicReference<MemoryAdmission.Ticket>();
+        Thread t = admitLater(admission, 80, large);
+        Thread.sleep(100);
+        assertNull(large.get());
+        MemoryAdmission.Ticket small = admission.admit(30);
+        assertEquals(90, admission.getUsedBytes());
+        first.release();
+        Thread.sleep(100);
+        assertNull(large.get());
+        small.release();
+        t.join(5000);
+        assertNotNull(large.get());
+        assertEquals(80, admission.getUsedBytes());
+        large.get().release();
+        large.get().release();
+        assertEquals(0, admission.getUsedBytes());
+        assertEquals(0, admission.getRunningCount());
+    }
+
+    /**
+       once the oldest job has waited past the backfill window, jobs
+       behind it should wait too
+    */
+    @Test
+    public void noBackfillPastWindow() throws Exception {
+        MemoryAdmission admission = new MemoryAdmission(100, 50);
+        MemoryAdmission.Ticket first = admission.admit(60);
+        AtomicReference<MemoryAdmission.Ticket> large = new AtomicReference<MemoryAdmission.Ticket>();
+        Thread t1 = admitLater(admission, 70, large);
+        Thread.sleep(200);
+        AtomicReference<MemoryAdmission.Ticket> small = new AtomicReference<MemoryAdmission.Ticket>();
+        Thread t2 = admitLater(admission, 30, small);
+        Thread.sleep(100);
+        assertNull(small.get());
+        assertEquals(2, admission.getWaitingCount());
+        first.release();
+        t1.join(5000);
+        t2.join(5000);
+        assertNotNull(large.get());
+        assertNotNull(small.get());
+    }
+
+    /**
+       a job larger than the budget should still run, alone
+    */
+    @Test
+    public void oversizedJob() throws Exception {
+        MemoryAdmission admission = new MemoryAdmission(100, 60000);
+        MemoryAdmission.Ticket ticket = admission.admit(500);
+        assertEquals(1, admission.getRunningCount());
+        ticket.release();
+    }
+
+    /**
+       rpsblast libraries count at their size, hmmscan ones at a
+       fixed size
+    */
+    @Test
+    public void estimate() {
+        long bytes = MemoryAdmission.estimateBytes(1000, 330000,
+                                                   Arrays.asList(DomainSearchTask.RPSBLAST_PROGRAM, DomainSearchTask.HMMSCAN_PROGRAM),
+                                                   Arrays.asList(1000000L, 5000000000L));
+        assertEquals(MemoryAdmission.JOB_BASE_BYTES +
+                     1000 * MemoryAdmission.FEATURE_BYTES +
+                     330000 * MemoryAdmission.RESIDUE_BYTES +
+                     1000000L +
+                     MemoryAdmission.HMMSCAN_PROCESS_BYTES,
+                     bytes);
+    }
+}
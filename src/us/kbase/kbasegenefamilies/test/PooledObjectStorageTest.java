@@ -0,0 +1,100 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.PooledObjectStorage;
+import us.kbase.workspace.ObjectData;
+import us.kbase.workspace.ObjectIdentity;
+import us.kbase.workspace.WorkspaceClient;
+
+/**
+   Tests for workspace clients pooled per token
+*/
+public class PooledObjectStorageTest {
+    /**
+       stand-in storage whose clients count the calls running at once
+    */
+    private static class CountingStorage extends PooledObjectStorage {
+        final AtomicInteger made = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        CountingStorage(int maxConnections, long expiryMillis) {
+            super("http://localhost:1/ws", maxConnections, expiryMillis);
+        }
+
+        @Override
+        protected WorkspaceClient newClient(String authToken) throws Exception {
+            made.incrementAndGet();
+            return new WorkspaceClient(new URL(getUrl())) {
+                @Override
+                public List<ObjectData> getObjects(List<ObjectIdentity> ids) {
+                    int n = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), n));
+                    }
+                    try {
+                        Thread.sleep(20);
+                    }
+                    catch (InterruptedException ignore) {}
+                    running.decrementAndGet();
+                    return new ArrayList<ObjectData>();
+                }
+            };
+        }
+    }
+
+    /**
+       each token should keep its client until it expires
+    */
+    @Test
+    public void clientsPerToken() throws Exception {
+        CountingStorage storage = new CountingStorage(4, 200);
+        WorkspaceClient a = storage.getClient("token-a");
+        assertSame(a, storage.getClient("token-a"));
+        WorkspaceClient b = storage.getClient("token-b");
+        assertNotSame(a, b);
+        WorkspaceClient anonymous = storage.getClient(null);
+        assertSame(anonymous, storage.getClient(null));
+        assertEquals(2, storage.getClientCount());
+        assertEquals(3, storage.made.get());
+        Thread.sleep(300);
+        assertNotSame(a, storage.getClient("token-a"));
+        assertEquals(1, storage.getClientCount());
+    }
+
+    /**
+       calls from many threads should never exceed the limit
+    */
+    @Test
+    public void connectionLimit() throws Exception {
+        final CountingStorage storage = new CountingStorage(3, 60000);
+        List<Callable<Object>> calls = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < 12; i++) {
+            final String token = "token-" + (i % 2);
+            calls.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return storage.getObjects(token, new ArrayList<ObjectIdentity>());
+                    }
+                });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(12);
+        try {
+            for (Future<Object> f : pool.invokeAll(calls))
+                f.get();
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertEquals(3, storage.maxRunning.get());
+        assertEquals(3, storage.getFreeConnections());
+        assertEquals(2, storage.made.get());
+    }
+}
@@ -0,0 +1,50 @@
+package us.kbase.kbasegenefamilies.test;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.ProteomeSharder;
+
+/**
+   Tests for splitting proteomes into shards
+*/
+public class ProteomeSharderTest {
+    /**
+       small proteomes are not split, large ones are split up to the
+       configured maximum
+    */
+    @Test
+    public void shardCount() throws Exception {
+        assertEquals(1, ProteomeSharder.getShardCount(1000000L, 8, 2000000L));
+        assertEquals(3, ProteomeSharder.getShardCount(7000000L, 8, 2000000L));
+        assertEquals(8, ProteomeSharder.getShardCount(100000000L, 8, 2000000L));
+        assertEquals(1, ProteomeSharder.getShardCount(100000000L, 1, 2000000L));
+    }
+
+    /**
+       shards should hold similar numbers of residues, and every
+       shard should get at least one sequence
+    */
+    @Test
+    public void balancedShards() throws Exception {
+        int[] lengths = new int[] { 400, 100, 100, 300, 200, 200, 100, 400 };
+        int shardCount = 3;
+        int[] shardOf = ProteomeSharder.assignShards(lengths, shardCount);
+        assertEquals(lengths.length, shardOf.length);
+        long[] load = new long[shardCount];
+        for (int i = 0; i < lengths.length; i++)
+            load[shardOf[i]] += lengths[i];
+        for (int shard = 0; shard < shardCount; shard++)
+            assertEquals(600L, load[shard]);
+    }
+
+    /**
+       with one shard, everything goes in shard 0
+    */
+    @Test
+    public void singleShard() throws Exception {
+        int[] shardOf = ProteomeSharder.assignShards(new int[] { 10, 20, 30 }, 1);
+        for (int shard : shardOf)
+            assertEquals(0, shard);
+    }
+}
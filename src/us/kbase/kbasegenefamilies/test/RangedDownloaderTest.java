@@ -0,0 +1,210 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import us.kbase.kbasegenefamilies.util.RangedDownloader;
+
+/**
+   Tests for ranged downloads, against a local stand-in for Shock
+*/
+public class RangedDownloaderTest {
+    private final TempDirs tempDirs = new TempDirs();
+
+    @After
+    public void deleteTempDirs() {
+        tempDirs.deleteAll();
+    }
+
+    /**
+       Serves one node's data, honoring Range unless told to ignore
+       it; ranges starting at an offset in failSeeks fail once.  Also
+       used by LibraryFileCacheTest.
+    */
+    static class NodeHandler implements HttpHandler {
+        private final byte[] data;
+        private final Set<Long> failSeeks;
+        private final boolean ignoreRange;
+        final List<Long> served = Collections.synchronizedList(new ArrayList<Long>());
+        volatile long delayMillis = 0;
+
+        NodeHandler(byte[] data, Set<Long> failSeeks) {
+            this(data, failSeeks, false);
+        }
+
+        NodeHandler(byte[] data, Set<Long> failSeeks, boolean ignoreRange) {
+            this.data = data;
+            this.failSeeks = Collections.synchronizedSet(new HashSet<Long>(failSeeks));
+            this.ignoreRange = ignoreRange;
+        }
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            long seek = 0;
+            long length = data.length;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            boolean partial = range != null && !ignoreRange;
+            if (partial) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                seek = Long.parseLong(bounds[0]);
+                length = Math.min(Long.parseLong(bounds[1]) + 1, data.length) - seek;
+            }
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failSeeks.remove(seek)) {
+                ex.sendResponseHeaders(500, -1);
+                ex.close();
+                return;
+            }
+            served.add(seek);
+            if (partial)
+                ex.getResponseHeaders().add("Content-Range", "bytes "+seek+"-"+(seek + length - 1)+"/"+data.length);
+            ex.sendResponseHeaders(partial ? 206 : 200, length);
+            OutputStream os = ex.getResponseBody();
+            os.write(data, (int)seek, (int)length);
+            os.close();
+        }
+    }
+
+    static byte[] makeData(int size) {
+        byte[] rv = new byte[size];
+        new Random(42).nextBytes(rv);
+        return rv;
+    }
+
+    static HttpServer startServer(NodeHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/node/", handler);
+        server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(4));
+        server.start();
+        return server;
+    }
+
+    static String getUrl(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+       a file split into several ranges should come back whole
+    */
+    @Test
+    public void parallelRanges() throws Exception {
+        byte[] data = makeData(100000);
+        NodeHandler handler = new NodeHandler(data, Collections.<Long>emptySet());
+        HttpServer server = startServer(handler);
+        try {
+            File part = new File(tempDirs.create("ranged"), "node.part");
+            new RangedDownloader(getUrl(server), null, 4, 16384).download("node1", data.length, part);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(part.toPath())));
+            assertEquals(7, handler.served.size());
+            assertFalse(RangedDownloader.getRangesFile(part).exists());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       a failed download should resume with only the ranges it missed
+    */
+    @Test
+    public void resume() throws Exception {
+        byte[] data = makeData(100000);
+        NodeHandler handler = new NodeHandler(data, new HashSet<Long>(Arrays.asList(32768L)));
+        HttpServer server = startServer(handler);
+        try {
+            File part = new File(tempDirs.create("ranged"), "node.part");
+            RangedDownloader downloader = new RangedDownloader(getUrl(server), null, 1, 16384);
+            try {
+                downloader.download("node1", data.length, part);
+                fail("download should have failed");
+            }
+            catch (IOException e) {
+                // expected
+            }
+            assertTrue(RangedDownloader.getRangesFile(part).exists());
+            assertEquals(Arrays.asList(0L, 16384L), handler.served);
+            downloader.download("node1", data.length, part);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(part.toPath())));
+            // every range was served exactly once over both attempts
+            assertEquals(7, handler.served.size());
+            assertEquals(7, new HashSet<Long>(handler.served).size());
+            assertFalse(RangedDownloader.getRangesFile(part).exists());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       a download resumed with another range size should start
+       over, rather than skip bytes the earlier ranges didn't cover
+    */
+    @Test
+    public void changedRangeSize() throws Exception {
+        byte[] data = makeData(100000);
+        NodeHandler handler = new NodeHandler(data, new HashSet<Long>(Arrays.asList(32768L)));
+        HttpServer server = startServer(handler);
+        try {
+            File part = new File(tempDirs.create("ranged"), "node.part");
+            try {
+                new RangedDownloader(getUrl(server), null, 1, 16384).download("node1", data.length, part);
+                fail("download should have failed");
+            }
+            catch (IOException e) {
+                // expected
+            }
+            assertEquals(Arrays.asList(0L, 16384L), handler.served);
+            new RangedDownloader(getUrl(server), null, 1, 32768).download("node1", data.length, part);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(part.toPath())));
+            assertEquals(Arrays.asList(0L, 16384L, 0L, 32768L, 65536L, 98304L), handler.served);
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       a server ignoring Range should fail a download in several
+       ranges, rather than have the whole file written at an offset;
+       a single range covering the file may come back as a plain 200
+    */
+    @Test
+    public void ignoredRange() throws Exception {
+        byte[] data = makeData(100000);
+        HttpServer server = startServer(new NodeHandler(data, Collections.<Long>emptySet(), true));
+        try {
+            File dir = tempDirs.create("ranged");
+            File part = new File(dir, "node.part");
+            try {
+                new RangedDownloader(getUrl(server), null, 1, 16384).download("node1", data.length, part);
+                fail("download should have failed");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage().contains("instead of a partial reply"));
+            }
+            File whole = new File(dir, "whole.part");
+            new RangedDownloader(getUrl(server), null, 1, data.length).download("node1", data.length, whole);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(whole.toPath())));
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
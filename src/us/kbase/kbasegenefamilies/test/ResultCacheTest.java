@@ -0,0 +1,70 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.DomainHits;
+import us.kbase.kbasegenefamilies.ResultCache;
+
+/**
+   Tests for the persistent result cache
+*/
+public class ResultCacheTest {
+    private final TempDirs tempDirs = new TempDirs();
+
+    @After
+    public void deleteTempDirs() {
+        tempDirs.deleteAll();
+    }
+
+    /**
+       cached hits should come back as they went in
+    */
+    @Test
+    public void roundTrip() throws Exception {
+        File dir = tempDirs.create("result_cache");
+        ResultCache cache = new ResultCache(dir, 1024L * 1024L);
+        assertNull(cache.get("a"));
+        DomainHits hits = new DomainHits();
+        hits.add(3, "PF00005.22", 1, 120, 2.2e-16, 58.1, 0.9562043795620438);
+        hits.add(7, "COG0001", 4, 40, 1e-5, 20.3, 0.5);
+        cache.put("a", hits);
+        DomainHits cached = cache.get("a");
+        assertEquals(2, cached.size());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(hits.getFeature(i), cached.getFeature(i));
+            assertEquals(hits.getModelName(hits.getModel(i)), cached.getModelName(cached.getModel(i)));
+            assertEquals(hits.getStart(i), cached.getStart(i));
+            assertEquals(hits.getStop(i), cached.getStop(i));
+            assertEquals(hits.getEvalue(i), cached.getEvalue(i));
+            assertEquals(hits.getBitscore(i), cached.getBitscore(i));
+            assertEquals(hits.getCoverage(i), cached.getCoverage(i));
+        }
+    }
+
+    /**
+       the least recently used entries should go first
+    */
+    @Test
+    public void eviction() throws Exception {
+        File dir = tempDirs.create("result_cache");
+        DomainHits hits = new DomainHits();
+        for (int i = 0; i < 100; i++)
+            hits.add(i, "m" + i, 1, 10, 1e-5, 10.0, 0.5);
+        ResultCache cache = new ResultCache(dir, 1L << 30);
+        cache.put("a", hits);
+        long entrySize = new File(dir, "a.hits").length();
+        cache = new ResultCache(dir, entrySize * 2 + entrySize / 2);
+        cache.put("b", hits);
+        new File(dir, "a.hits").setLastModified(System.currentTimeMillis() - 20000);
+        new File(dir, "b.hits").setLastModified(System.currentTimeMillis() - 10000);
+        assertNotNull(cache.get("a"));
+        cache.put("c", hits);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
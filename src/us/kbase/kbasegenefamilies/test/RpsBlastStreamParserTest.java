@@ -0,0 +1,76 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import us.kbase.kbasegenefamilies.util.RpsBlastStreamParser;
+
+/**
+   Tests for parsing RPS-BLAST output from a stream
+*/
+public class RpsBlastStreamParserTest {
+    /**
+       subject accession should be taken from the start of the title
+    */
+    @Test
+    public void parseSubjects() throws Exception {
+        String output = "12\tCOG0001, GltB, Glutamate synthase\t5\tMK-LV\t1\tMKALV\t2e-10\t55.1\t80.0\n"+
+            "\n"+
+            "7\tpfam00005 ABC_tran\t10\tAAAA\t3\tAAAA\t1e-05\t30.0\t100.0\n"+
+            "8\tsmart00382\t1\tA\t1\tA\t0.5\t12.5\t100.0\n";
+        final List<String> hits = new ArrayList<String>();
+        RpsBlastStreamParser.processRpsOutput(new ByteArrayInputStream(output.getBytes("UTF-8")), new RpsBlastStreamParser.AlignmentCallback() {
+                @Override
+                public void next(int query, String subject, int qstart, int queryResidues,
+                                 int sstart, int subjectResidues, int alignedResidues,
+                                 double evalue, double bitscore) throws Exception {
+                    hits.add(query+"/"+subject);
+                }
+            });
+        assertEquals(Arrays.asList("12/COG0001", "7/pfam00005", "8/smart00382"), hits);
+    }
+
+    /**
+       the byte parser should measure the alignment as the String
+       version's sequences would be measured
+    */
+    @Test
+    public void parseAlignments() throws Exception {
+        String output = "12\tCOG0001, GltB, Glutamate synthase\t5\tMK-LV\t1\tMKALV\t2e-10\t55.1\t80.0\r\n"+
+            "\n"+
+            "7\tpfam00005 ABC_tran\t10\tAAAA\t3\tA-AA\t1e-05\t30.0\t100.0";
+        final List<String> hits = new ArrayList<String>();
+        RpsBlastStreamParser.processRpsOutput(new ByteArrayInputStream(output.getBytes("UTF-8")), new RpsBlastStreamParser.AlignmentCallback() {
+                @Override
+                public void next(int query, String subject, int qstart, int queryResidues,
+                                 int sstart, int subjectResidues, int alignedResidues,
+                                 double evalue, double bitscore) throws Exception {
+                    hits.add(query+"/"+subject+"/"+qstart+"/"+queryResidues+"/"+sstart+"/"+
+                             subjectResidues+"/"+alignedResidues+"/"+evalue+"/"+bitscore);
+                }
+            });
+        assertEquals(2, hits.size());
+        assertEquals("12/COG0001/5/4/1/5/4/2.0E-10/55.1", hits.get(0));
+        assertEquals("7/pfam00005/10/4/3/3/3/1.0E-5/30.0", hits.get(1));
+    }
+
+    /**
+       coverage should be the whole percent of the model aligned to
+       query residues, and alignments past the model rejected
+    */
+    @Test
+    public void coverage() throws Exception {
+        assertEquals(40, RpsBlastStreamParser.getCoveragePercent(10, 1, 5, 4));
+        assertEquals(43, RpsBlastStreamParser.getCoveragePercent(7, 3, 3, 3));
+        assertEquals(100, RpsBlastStreamParser.getCoveragePercent(3, 1, 3, 3));
+        try {
+            RpsBlastStreamParser.getCoveragePercent(7, 6, 3, 3);
+            fail("alignment past the end of the model");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import static junit.framework.Assert.*;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.Tuple4;
+import us.kbase.kbasegenefamilies.DomainAnnotation;
+import us.kbase.kbasegenefamilies.DomainHits;
+import us.kbase.kbasegenefamilies.FeatureLayout;
+import us.kbase.kbasegenefamilies.PooledObjectStorage;
+import us.kbase.kbasegenefamilies.ProteinSpool;
+import us.kbase.kbasegenefamilies.util.StreamingGenomeReader;
+import us.kbase.kbasegenomes.Feature;
+import us.kbase.kbasegenomes.Genome;
+
+/**
+   Tests for streaming genomes into feature layouts, and for the
+   spool their proteins are kept in
+*/
+public class StreamingGenomeReaderTest {
+    private static final String RESPONSE =
+        "{\"version\":\"1.1\",\"id\":\"1\",\"result\":[[{\"info\":[1,\"g\",\"KBaseGenomes.Genome-8.0\"]," +
+        "\"data\":{\"features\":[" +
+        "{\"id\":\"f1\",\"type\":\"CDS\",\"location\":[[\"c1\",100,\"+\",30],[\"c1\",200,\"+\",9]],\"protein_translation\":\"MKVL\"," +
+        "\"dna_sequence\":\"ATGAAAGTGCTG\"}," +
+        "{\"location\":[[\"c2\",250,\"-\",30]],\"id\":\"f2\",\"protein_translation\":\"MSTN\"}," +
+        "{\"id\":\"f3\",\"location\":[],\"protein_translation\":\"MSTN\"}," +
+        "{\"id\":\"f4\",\"location\":[[\"c1\",400,\"+\",30]],\"protein_translation\":null}," +
+        "{\"id\":\"f5\",\"location\":[[\"c1\",500,\"+\",30]],\"protein_translation\":\"MKVL\"}]," +
+        "\"scientific_name\":\"test\",\"contig_ids\":[\"c1\",\"c2\"],\"contig_lengths\":[10000,5000]}}]]}";
+
+    private final TempDirs tempDirs = new TempDirs();
+
+    @After
+    public void deleteTempDirs() {
+        tempDirs.deleteAll();
+    }
+
+    private static Feature feature(String id, String contig, long start, String dir, long len, String prot) {
+        return new Feature()
+            .withId(id)
+            .withProteinTranslation(prot)
+            .withLocation(contig == null ? new ArrayList<Tuple4<String, Long, String, Long>>() :
+                          Arrays.asList(new Tuple4<String, Long, String, Long>()
+                                        .withE1(contig).withE2(start).withE3(dir).withE4(len)));
+    }
+
+    /**
+       a streamed genome should lay out as the same genome built in
+       memory, with its sequences spooled
+    */
+    @Test
+    public void matchesGenome() throws Exception {
+        File dir = tempDirs.create("spool");
+        FeatureLayout streamed = StreamingGenomeReader.readResponse(new ByteArrayInputStream(RESPONSE.getBytes("UTF-8")), "1/2/3", dir);
+        Genome genome = new Genome()
+            .withScientificName("test")
+            .withContigIds(Arrays.asList("c1", "c2"))
+            .withContigLengths(Arrays.asList(10000L, 5000L))
+            .withFeatures(Arrays.asList(feature("f1", "c1", 100, "+", 30, "MKVL"),
+                                        feature("f2", "c2", 250, "-", 30, "MSTN"),
+                                        feature("f3", null, 0, null, 0, "MSTN"),
+                                        feature("f4", "c1", 400, "+", 30, null),
+                                        feature("f5", "c1", 500, "+", 30, "MKVL")));
+        FeatureLayout built = new FeatureLayout(genome, "1/2/3");
+        assertEquals(built.getFeatureCount(), streamed.getFeatureCount());
+        assertEquals(built.getProteinPositions(), streamed.getProteinPositions());
+        assertEquals(Arrays.asList("MKVL", "MSTN"), streamed.getProteinSequences());
+        assertEquals(built.getCopyCount(), streamed.getCopyCount());
+        assertEquals(1, dir.listFiles().length);
+
+        DomainHits hits = new DomainHits();
+        hits.add(0, "PF1", 1, 3, 1e-5, 10.0, 0.5);
+        DomainAnnotation a1 = built.toAnnotation("4/5/6", built.addCopies(hits));
+        DomainAnnotation a2 = streamed.toAnnotation("4/5/6", streamed.addCopies(hits));
+        assertEquals(a1.getData().toString(), a2.getData().toString());
+        assertEquals(a1.getFeatureToContigAndIndex().toString(), a2.getFeatureToContigAndIndex().toString());
+        assertEquals(a1.getContigToSizeAndFeatureCount().toString(), a2.getContigToSizeAndFeatureCount().toString());
+
+        streamed.close();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    /**
+       Answers workspace calls with a fixed response, after a delay,
+       remembering the last request
+    */
+    private static class WorkspaceHandler implements HttpHandler {
+        private final String response;
+        private final long delayMillis;
+        volatile String request = null;
+
+        WorkspaceHandler(String response, long delayMillis) {
+            this.response = response;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            request = IOUtils.toString(ex.getRequestBody(), "UTF-8");
+            try {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException ignore) {}
+            byte[] body = response.getBytes("UTF-8");
+            ex.sendResponseHeaders(200, body.length);
+            OutputStream os = ex.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    private static HttpServer startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(2));
+        server.start();
+        return server;
+    }
+
+    /**
+       a genome should be read through the storage, which gives the
+       connection back when it's done
+    */
+    @Test
+    public void readThroughStorage() throws Exception {
+        WorkspaceHandler handler = new WorkspaceHandler(RESPONSE, 0);
+        HttpServer server = startServer(handler);
+        try {
+            PooledObjectStorage storage = new PooledObjectStorage("http://127.0.0.1:" + server.getAddress().getPort() + "/", 2, 60000);
+            File dir = tempDirs.create("spool");
+            FeatureLayout layout = StreamingGenomeReader.readLayout(storage, null, "1/2/3", dir);
+            assertEquals(5, layout.getFeatureCount());
+            assertTrue(handler.request.contains("\"Workspace.get_object_subset\""));
+            assertTrue(handler.request.contains("\"ref\":\"1/2/3\""));
+            assertEquals(2, storage.getFreeConnections());
+            layout.close();
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       a workspace that stalls should time out rather than hang
+    */
+    @Test
+    public void readTimeout() throws Exception {
+        HttpServer server = startServer(new WorkspaceHandler(RESPONSE, 2000));
+        try {
+            PooledObjectStorage storage = new PooledObjectStorage("http://127.0.0.1:" + server.getAddress().getPort() + "/", 2, 60000, 1000, 200);
+            try {
+                StreamingGenomeReader.readLayout(storage, null, "1/2/3", tempDirs.create("spool"));
+                fail("the read should have timed out");
+            }
+            catch (SocketTimeoutException e) {
+            }
+            assertEquals(2, storage.getFreeConnections());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+       a workspace error should be reported as such
+    */
+    @Test
+    public void error() throws Exception {
+        String response = "{\"version\":\"1.1\",\"error\":{\"name\":\"JSONRPCError\",\"code\":-32500,\"message\":\"No object with name g\"}}";
+        try {
+            StreamingGenomeReader.readResponse(new ByteArrayInputStream(response.getBytes("UTF-8")), "1/2/3", null);
+            fail("error should have been thrown");
+        }
+        catch (JsonClientException e) {
+            assertEquals("No object with name g", e.getMessage());
+        }
+    }
+
+    /**
+       the spool should keep each distinct sequence once, and write
+       it out as FASTA
+    */
+    @Test
+    public void spool() throws Exception {
+        File dir = tempDirs.create("spool");
+        ProteinSpool spool = new ProteinSpool(dir);
+        StringBuilder longSeq = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            longSeq.append("ACDEFGHIKLMNPQRSTVWY".charAt(i % 20));
+        assertEquals(0, spool.add("MKVL"));
+        assertEquals(1, spool.add(longSeq.toString()));
+        assertEquals(-1, spool.add("MKVL"));
+        for (int i = 0; i < 3000; i++)
+            assertEquals(2 + i, spool.add("M" + i));
+        assertEquals(-2, spool.add(longSeq.toString()));
+        assertEquals(3002, spool.getCount());
+        assertEquals(5000, spool.getLength(1));
+        assertEquals(longSeq.toString(), spool.getSequence(1));
+        assertEquals("M2999", spool.getSequence(3001));
+        java.io.ByteArrayOutputStream os = new java.io.ByteArrayOutputStream();
+        spool.writeFasta(0, "17", os);
+        assertEquals(">17\nMKVL\n", os.toString("US-ASCII"));
+        spool.close();
+        assertEquals(0, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,34 @@
+package us.kbase.kbasegenefamilies.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+   Temporary directories made by a test, removed with everything in
+   them by deleteAll() once the test is done
+*/
+public class TempDirs {
+    private final List<File> dirs = new ArrayList<File>();
+
+    public synchronized File create(String prefix) throws IOException {
+        File rv = Files.createTempDirectory(prefix).toFile();
+        dirs.add(rv);
+        return rv;
+    }
+
+    public synchronized void deleteAll() {
+        for (File dir : dirs)
+            delete(dir);
+        dirs.clear();
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        f.delete();
+    }
+}
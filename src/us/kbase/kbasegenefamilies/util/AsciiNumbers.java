@@ -0,0 +1,118 @@
+package us.kbase.kbasegenefamilies.util;
+
+/**
+   Parses numbers straight out of ASCII byte ranges, as the output
+   parsers of the search programs read them, without making a String
+   for each.
+*/
+public class AsciiNumbers {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+       Parses a decimal integer in bytes [from, to) of buf
+    */
+    public static int parseInt(byte[] buf,
+                               int from,
+                               int to) {
+        int i = from;
+        boolean negative = i < to && buf[i] == '-';
+        if (negative)
+            i++;
+        if (i == to)
+            throw new NumberFormatException(new String(buf, from, to - from));
+        int rv = 0;
+        for (; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException(new String(buf, from, to - from));
+            rv = rv * 10 + digit;
+        }
+        return negative ? -rv : rv;
+    }
+
+    /**
+       Parses a decimal number such as 45.3 or 1.2e-15 in bytes
+       [from, to) of buf.  When the digits and exponent are small
+       enough for the result to be exact this is done in place;
+       otherwise it falls back on Double.parseDouble so results
+       always match it.
+    */
+    public static double parseDouble(byte[] buf,
+                                     int from,
+                                     int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean seenDigit = false;
+        boolean inFraction = false;
+        for (; i < to; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    if (inFraction)
+                        exp10--;
+                    continue;
+                }
+                if (digits >= 15)
+                    return slowParseDouble(buf, from, to);
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (inFraction)
+                    exp10--;
+            }
+            else if (b == '.' && !inFraction)
+                inFraction = true;
+            else if (b == 'e' || b == 'E')
+                break;
+            else
+                return slowParseDouble(buf, from, to);
+        }
+        if (!seenDigit)
+            return slowParseDouble(buf, from, to);
+        if (i < to) {
+            // exponent
+            i++;
+            boolean expNegative = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                expNegative = buf[i] == '-';
+                i++;
+            }
+            if (i == to)
+                throw new NumberFormatException(new String(buf, from, to - from));
+            int exp = 0;
+            for (; i < to; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9 || exp > 100000)
+                    return slowParseDouble(buf, from, to);
+                exp = exp * 10 + digit;
+            }
+            exp10 += expNegative ? -exp : exp;
+        }
+        double rv;
+        if (mantissa == 0)
+            rv = 0.0;
+        else if (exp10 >= 0 && exp10 < POWERS_OF_TEN.length)
+            rv = mantissa * POWERS_OF_TEN[exp10];
+        else if (exp10 < 0 && -exp10 < POWERS_OF_TEN.length)
+            rv = mantissa / POWERS_OF_TEN[-exp10];
+        else
+            return slowParseDouble(buf, from, to);
+        return negative ? -rv : rv;
+    }
+
+    private static double slowParseDouble(byte[] buf,
+                                          int from,
+                                          int to) {
+        return Double.parseDouble(new String(buf, from, to - from));
+    }
+}
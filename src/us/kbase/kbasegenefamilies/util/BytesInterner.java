@@ -0,0 +1,70 @@
+package us.kbase.kbasegenefamilies.util;
+
+/**
+   Maps ASCII byte ranges to canonical Strings, making a new String
+   only the first time a given sequence of bytes is seen.  Uses open
+   addressing with linear probing.  Not thread-safe.
+*/
+public class BytesInterner {
+    private String[] keys = new String[256];
+    private int[] hashes = new int[256];
+    private int size = 0;
+
+    /**
+       Returns the String for bytes [from, to) of buf
+    */
+    public String intern(byte[] buf, int from, int to) {
+        int hash = hash(buf, from, to);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && matches(keys[slot], buf, from, to))
+                return keys[slot];
+            slot = (slot + 1) & mask;
+        }
+        String rv = new String(buf, from, to - from);
+        keys[slot] = rv;
+        hashes[slot] = hash;
+        size++;
+        if (size * 2 > keys.length)
+            grow();
+        return rv;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int hash(byte[] buf, int from, int to) {
+        int rv = 0;
+        for (int i = from; i < to; i++)
+            rv = 31 * rv + buf[i];
+        return rv ^ (rv >>> 16);
+    }
+
+    private static boolean matches(String key, byte[] buf, int from, int to) {
+        if (key.length() != to - from)
+            return false;
+        for (int i = from; i < to; i++)
+            if (key.charAt(i - from) != (char)buf[i])
+                return false;
+        return true;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        keys = new String[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+}
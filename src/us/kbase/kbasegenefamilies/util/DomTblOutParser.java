@@ -0,0 +1,183 @@
+package us.kbase.kbasegenefamilies.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+   Parses the per-domain table that hmmscan or hmmsearch writes with
+   --domtblout.  hmmscan's targets are models and its queries are
+   sequences; hmmsearch has them the other way round, so its hits
+   are read from the swapped columns.
+   Fields are scanned straight out of a reused byte buffer, so no
+   Strings are made per line; model names are interned, so each
+   distinct model costs one String for the whole run.
+*/
+public class DomTblOutParser {
+    /**
+       Receives one domain hit.  Query is the numeric name of the
+       query sequence; positions are 1-offset, for compatibility
+       with RPS-BLAST parsing code.
+    */
+    public interface HmmerCallback {
+        public void next(int query,
+                         String modelName,
+                         int hmmFrom,
+                         int hmmTo,
+                         int start,
+                         int stop,
+                         double score,
+                         double evalue) throws Exception;
+    }
+
+    // 0-based columns of the --domtblout format
+    private static final int COL_TARGET_NAME = 0;
+    private static final int COL_TARGET_ACCESSION = 1;
+    private static final int COL_QUERY_NAME = 3;
+    private static final int COL_QUERY_ACCESSION = 4;
+    private static final int COL_I_EVALUE = 12;
+    private static final int COL_DOMAIN_SCORE = 13;
+    private static final int COL_HMM_FROM = 15;
+    private static final int COL_HMM_TO = 16;
+    private static final int COL_ALI_FROM = 17;
+    private static final int COL_ALI_TO = 18;
+    private static final int FIELDS_NEEDED = COL_ALI_TO + 1;
+
+    private byte[] buf = new byte[1 << 16];
+    private final int[] fieldStart = new int[FIELDS_NEEDED];
+    private final int[] fieldEnd = new int[FIELDS_NEEDED];
+    private final BytesInterner modelNames = new BytesInterner();
+    private final int sequenceCol;
+    private final int modelNameCol;
+    private final int modelAccessionCol;
+
+    /**
+       Makes a parser of hmmscan output
+    */
+    public DomTblOutParser() {
+        this(false);
+    }
+
+    /**
+       Makes a parser of hmmsearch output if modelsAreQueries, or
+       else of hmmscan output
+    */
+    public DomTblOutParser(boolean modelsAreQueries) {
+        sequenceCol = modelsAreQueries ? COL_TARGET_NAME : COL_QUERY_NAME;
+        modelNameCol = modelsAreQueries ? COL_QUERY_NAME : COL_TARGET_NAME;
+        modelAccessionCol = modelsAreQueries ? COL_QUERY_ACCESSION : COL_TARGET_ACCESSION;
+    }
+
+    /**
+       Reads a whole --domtblout stream, calling back once per domain.
+    */
+    public static void processDomTblOutput(InputStream is,
+                                           HmmerCallback callback) throws Exception {
+        new DomTblOutParser().process(is, callback);
+    }
+
+    /**
+       Reads a whole --domtblout stream written by hmmsearch, calling
+       back once per domain as for hmmscan.
+    */
+    public static void processHmmsearchDomTblOutput(InputStream is,
+                                                    HmmerCallback callback) throws Exception {
+        new DomTblOutParser(true).process(is, callback);
+    }
+
+    public void process(InputStream is,
+                        HmmerCallback callback) throws Exception {
+        int lineStart = 0;
+        int end = 0;
+        while (true) {
+            if (end == buf.length) {
+                if (lineStart > 0) {
+                    // move the partial line to the front
+                    System.arraycopy(buf, lineStart, buf, 0, end - lineStart);
+                    end -= lineStart;
+                    lineStart = 0;
+                }
+                else {
+                    // a line longer than the buffer
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, end);
+                    buf = bigger;
+                }
+            }
+            int scanFrom = end;
+            int n = is.read(buf, end, buf.length - end);
+            if (n < 0)
+                break;
+            end += n;
+            for (int i = scanFrom; i < end; i++) {
+                if (buf[i] == '\n') {
+                    processLine(lineStart, i, callback);
+                    lineStart = i + 1;
+                }
+            }
+        }
+        if (lineStart < end)
+            processLine(lineStart, end, callback);
+    }
+
+    /**
+       Parses one line of the table; comments and blank lines are
+       skipped.
+    */
+    private void processLine(int from,
+                             int to,
+                             HmmerCallback callback) throws Exception {
+        int i = skipSpace(from, to);
+        if (i == to || buf[i] == '#')
+            return;
+        for (int field = 0; field < FIELDS_NEEDED; field++) {
+            i = skipSpace(i, to);
+            if (i == to)
+                throw new IOException("Format error in HMMER domain table line '"+new String(buf, from, to - from)+"'");
+            fieldStart[field] = i;
+            while (i < to && buf[i] != ' ' && buf[i] != '\t')
+                i++;
+            fieldEnd[field] = i;
+        }
+        int nameCol = modelAccessionCol;
+        if (fieldEnd[nameCol] - fieldStart[nameCol] == 1 && buf[fieldStart[nameCol]] == '-')
+            nameCol = modelNameCol;
+        String modelName = modelNames.intern(buf, fieldStart[nameCol], fieldEnd[nameCol]);
+        callback.next(parseInt(sequenceCol),
+                      modelName,
+                      parseInt(COL_HMM_FROM),
+                      parseInt(COL_HMM_TO),
+                      parseInt(COL_ALI_FROM),
+                      parseInt(COL_ALI_TO),
+                      parseDouble(COL_DOMAIN_SCORE),
+                      parseDouble(COL_I_EVALUE));
+    }
+
+    private int skipSpace(int i, int to) {
+        while (i < to && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r'))
+            i++;
+        return i;
+    }
+
+    private int parseInt(int field) throws IOException {
+        try {
+            return AsciiNumbers.parseInt(buf, fieldStart[field], fieldEnd[field]);
+        }
+        catch (NumberFormatException e) {
+            throw numberFormatError(field);
+        }
+    }
+
+    private double parseDouble(int field) throws IOException {
+        try {
+            return AsciiNumbers.parseDouble(buf, fieldStart[field], fieldEnd[field]);
+        }
+        catch (NumberFormatException e) {
+            throw numberFormatError(field);
+        }
+    }
+
+    private IOException numberFormatError(int field) {
+        return new IOException("Number format error in HMMER domain table column " + (field + 1) + ": '"+
+                               new String(buf, fieldStart[field], fieldEnd[field] - fieldStart[field])+"'");
+    }
+}
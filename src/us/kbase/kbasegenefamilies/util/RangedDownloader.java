@@ -0,0 +1,266 @@
+package us.kbase.kbasegenefamilies.util;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+   Downloads Shock node files in byte ranges fetched in parallel,
+   using HTTP Range requests.  Each range is written at its own
+   offset through FileChannel positional writes, and only once the
+   server has confirmed, with a 206 reply and a matching
+   Content-Range, that it is sending that range; a server that
+   ignores Range would otherwise send the whole file, which would be
+   written at the range's offset.  A plain 200 is only taken for a
+   single range covering the whole file.
+
+   Finished ranges are recorded in a file next to the partial
+   download, so a download that is interrupted resumes with the
+   ranges still missing rather than starting over.  The record
+   holds the file and range sizes too; a resume with ranges of
+   another size starts over.
+*/
+public class RangedDownloader {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String shockUrl;
+    private final String token;
+    private final int threadCount;
+    private final long rangeSize;
+
+    /**
+       Makes a downloader for a Shock server; the token may be null
+       for publicly readable nodes
+    */
+    public RangedDownloader(String shockUrl,
+                            String token,
+                            int threadCount,
+                            long rangeSize) {
+        this.shockUrl = shockUrl.endsWith("/") ? shockUrl : shockUrl + "/";
+        this.token = token;
+        this.threadCount = Math.max(1, threadCount);
+        this.rangeSize = Math.max(1, rangeSize);
+    }
+
+    /**
+       File that records the finished ranges of a partial download
+    */
+    public static File getRangesFile(File partFile) {
+        return new File(partFile.getPath() + ".ranges");
+    }
+
+    /**
+       Downloads a node's file of known size into partFile, keeping
+       any ranges finished by an earlier attempt.  On success, the
+       record of finished ranges is removed; on failure, both files
+       are left for the next attempt.  No range is started after
+       one fails, and those already started are finished before the
+       file is closed, so nothing is written to it after this
+       returns.
+    */
+    public void download(final String nodeId,
+                         long size,
+                         File partFile) throws Exception {
+        final int rangeCount = (int)Math.max(1, (size + rangeSize - 1) / rangeSize);
+        final File rangesFile = getRangesFile(partFile);
+        final BitSet done = readRanges(rangesFile, partFile, size);
+        RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+        try {
+            raf.setLength(size);
+            final FileChannel channel = raf.getChannel();
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+            for (int range = 0; range < rangeCount; range++) {
+                if (done.get(range))
+                    continue;
+                final int r = range;
+                final long start = range * rangeSize;
+                final long length = Math.min(rangeSize, size - start);
+                final long fileSize = size;
+                jobs.add(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            if (failed.get())
+                                return null;
+                            try {
+                                fetchRange(nodeId, start, length, fileSize, channel);
+                            }
+                            catch (Exception e) {
+                                failed.set(true);
+                                throw e;
+                            }
+                            synchronized (done) {
+                                done.set(r);
+                                writeRanges(rangesFile, fileSize, done, channel);
+                            }
+                            return null;
+                        }
+                    });
+            }
+            runAll(jobs);
+            channel.force(true);
+        }
+        finally {
+            raf.close();
+        }
+        rangesFile.delete();
+    }
+
+    /**
+       Runs jobs on up to threadCount threads, waiting for all of
+       them even if some fail, and then throwing the first failure
+    */
+    private void runAll(List<Callable<Object>> jobs) throws Exception {
+        if (jobs.isEmpty())
+            return;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, jobs.size()));
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (Callable<Object> job : jobs)
+                futures.add(pool.submit(job));
+            Exception err = null;
+            for (Future<Object> f : futures) {
+                try {
+                    f.get();
+                }
+                catch (ExecutionException e) {
+                    if (err == null) {
+                        Throwable cause = e.getCause();
+                        err = (cause instanceof Exception) ? (Exception)cause : new IllegalStateException(cause);
+                    }
+                }
+            }
+            if (err != null)
+                throw err;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+       Fetches one range and writes it at its offset in a file of
+       a given size
+    */
+    private void fetchRange(String nodeId,
+                            long start,
+                            long length,
+                            long size,
+                            FileChannel channel) throws IOException {
+        if (length == 0)
+            return;
+        URL url = new URL(shockUrl + "node/" + nodeId + "?download");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        if (token != null)
+            conn.setRequestProperty("Authorization", "OAuth " + token);
+        long last = start + length - 1;
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + last);
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = conn.getHeaderField("Content-Range");
+            if (!isContentRange(contentRange, start, last)) {
+                conn.disconnect();
+                throw new IOException("Shock download of node "+nodeId+" range "+start+"+"+length+
+                                      " got Content-Range "+contentRange);
+            }
+        }
+        else if (code != HttpURLConnection.HTTP_OK || start != 0 || length != size) {
+            conn.disconnect();
+            throw new IOException("Shock download of node "+nodeId+" range "+start+"+"+length+" failed with HTTP status "+code+
+                                  (code == HttpURLConnection.HTTP_OK ? " instead of a partial reply" : ""));
+        }
+        InputStream is = conn.getInputStream();
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long pos = start;
+            long end = start + length;
+            int n;
+            while (pos < end && (n = is.read(buf, 0, (int)Math.min(buf.length, end - pos))) > 0) {
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining())
+                    pos += channel.write(bb, pos);
+            }
+            if (pos != end)
+                throw new IOException("Shock download of node "+nodeId+" range "+start+"+"+length+" ended after "+(pos - start)+" bytes");
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+       True for a Content-Range header of exactly bytes first-last
+    */
+    private static boolean isContentRange(String contentRange,
+                                  long first,
+                                  long last) {
+        if (contentRange == null)
+            return false;
+        String prefix = "bytes " + first + "-" + last + "/";
+        return contentRange.trim().startsWith(prefix);
+    }
+
+    /**
+       Reads the finished ranges of an earlier attempt; these only
+       count if the partial file is there, at its full size, and the
+       attempt split the file into ranges of the same size
+    */
+    private BitSet readRanges(File rangesFile,
+                              File partFile,
+                              long size) throws IOException {
+        BitSet rv = new BitSet();
+        if (!rangesFile.isFile() || !partFile.isFile() || partFile.length() != size)
+            return rv;
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rangesFile)));
+        try {
+            // ranges of another size cover other bytes; start over
+            if (is.readLong() != size || is.readLong() != rangeSize)
+                return rv;
+            int count = is.readInt();
+            for (int i = 0; i < count; i++)
+                rv.set(is.readInt());
+        }
+        catch (EOFException e) {
+            // a record cut short; start over
+            rv.clear();
+        }
+        finally {
+            is.close();
+        }
+        return rv;
+    }
+
+    /**
+       Records the finished ranges, with the file and range sizes
+       they're for, after making sure their data is on disk.  The
+       record is replaced atomically.
+    */
+    private void writeRanges(File rangesFile,
+                             long size,
+                             BitSet done,
+                             FileChannel channel) throws IOException {
+        channel.force(false);
+        File tmp = new File(rangesFile.getPath() + ".tmp");
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            os.writeLong(size);
+            os.writeLong(rangeSize);
+            os.writeInt(done.cardinality());
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1))
+                os.writeInt(i);
+        }
+        finally {
+            os.close();
+        }
+        if (!tmp.renameTo(rangesFile)) {
+            rangesFile.delete();
+            if (!tmp.renameTo(rangesFile))
+                throw new IOException("Can't move "+tmp+" to "+rangesFile);
+        }
+    }
+}
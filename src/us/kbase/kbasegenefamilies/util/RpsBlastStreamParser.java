@@ -0,0 +1,202 @@
+package us.kbase.kbasegenefamilies.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+   Parses tabular RPS-BLAST output (in RpsBlastParser.OUTPUT_FORMAT_STRING
+   format) from a stream, so hits can be processed while rpsblast
+   is still running.  Hits are reported, without making any Strings
+   per line, to an AlignmentCallback: fields are scanned straight
+   out of a reused byte buffer, subject accessions are interned, and
+   the aligned sequences are only counted, never copied.
+*/
+public class RpsBlastStreamParser {
+    /**
+       Receives one hit, with its alignment already measured.  Query
+       is the numeric name of the query sequence; positions are
+       1-offset.  queryResidues and subjectResidues count the
+       non-gap characters of each aligned sequence; alignedResidues
+       counts the columns where neither has a gap.
+    */
+    public interface AlignmentCallback {
+        public void next(int query,
+                         String subject,
+                         int qstart,
+                         int queryResidues,
+                         int sstart,
+                         int subjectResidues,
+                         int alignedResidues,
+                         double evalue,
+                         double bitscore) throws Exception;
+    }
+
+    // 0-based columns of RpsBlastParser.OUTPUT_FORMAT_STRING
+    private static final int COL_QUERY = 0;
+    private static final int COL_SUBJECT = 1;
+    private static final int COL_QSTART = 2;
+    private static final int COL_QSEQ = 3;
+    private static final int COL_SSTART = 4;
+    private static final int COL_SSEQ = 5;
+    private static final int COL_EVALUE = 6;
+    private static final int COL_BITSCORE = 7;
+    private static final int FIELDS_NEEDED = 9;
+
+    private byte[] buf = new byte[1 << 16];
+    private final int[] fieldStart = new int[FIELDS_NEEDED];
+    private final int[] fieldEnd = new int[FIELDS_NEEDED];
+    private final BytesInterner subjects = new BytesInterner();
+
+    /**
+       Reads every line of output, calling back once per hit with
+       the alignment measured rather than as text.  The subject
+       reported is the first word of the subject title (the model
+       accession), without any trailing comma.
+    */
+    public static void processRpsOutput(InputStream is,
+                                        AlignmentCallback callback) throws Exception {
+        new RpsBlastStreamParser().process(is, callback);
+    }
+
+    /**
+       Percent of a model covered by an alignment, as
+       100 - AlignUtil.getGapPercent() of the query aligned to the
+       model gives it: the model positions aligned to a query
+       residue, out of the model length, rounded up to a whole
+       percent.
+    */
+    public static int getCoveragePercent(int modelLength,
+                                         int sstart,
+                                         int subjectResidues,
+                                         int alignedResidues) {
+        if (sstart < 1 || sstart - 1 + subjectResidues > modelLength)
+            throw new IllegalStateException("Alignment at "+sstart+" of "+subjectResidues+
+                                            " residues is outside a model of length "+modelLength);
+        return 100 - (modelLength - alignedResidues) * 100 / modelLength;
+    }
+
+    public void process(InputStream is,
+                        AlignmentCallback callback) throws Exception {
+        int lineStart = 0;
+        int end = 0;
+        while (true) {
+            if (end == buf.length) {
+                if (lineStart > 0) {
+                    // move the partial line to the front
+                    System.arraycopy(buf, lineStart, buf, 0, end - lineStart);
+                    end -= lineStart;
+                    lineStart = 0;
+                }
+                else {
+                    // a line longer than the buffer
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, end);
+                    buf = bigger;
+                }
+            }
+            int scanFrom = end;
+            int n = is.read(buf, end, buf.length - end);
+            if (n < 0)
+                break;
+            end += n;
+            for (int i = scanFrom; i < end; i++) {
+                if (buf[i] == '\n') {
+                    processLine(lineStart, i, callback);
+                    lineStart = i + 1;
+                }
+            }
+        }
+        if (lineStart < end)
+            processLine(lineStart, end, callback);
+    }
+
+    /**
+       Parses one tab-separated line; blank lines are skipped.
+    */
+    private void processLine(int from,
+                             int to,
+                             AlignmentCallback callback) throws Exception {
+        if (to > from && buf[to - 1] == '\r')
+            to--;
+        if (isBlank(from, to))
+            return;
+        int i = from;
+        for (int field = 0; field < FIELDS_NEEDED; field++) {
+            if (i > to)
+                throw formatError(from, to);
+            fieldStart[field] = i;
+            while (i < to && buf[i] != '\t')
+                i++;
+            fieldEnd[field] = i;
+            i++;
+        }
+        // the accession is the first word of the title
+        int subjectEnd = fieldStart[COL_SUBJECT];
+        while (subjectEnd < fieldEnd[COL_SUBJECT] && buf[subjectEnd] != ' ')
+            subjectEnd++;
+        if (subjectEnd == fieldStart[COL_SUBJECT])
+            subjectEnd = fieldEnd[COL_SUBJECT];
+        if (subjectEnd > fieldStart[COL_SUBJECT] && buf[subjectEnd - 1] == ',')
+            subjectEnd--;
+        String subject = subjects.intern(buf, fieldStart[COL_SUBJECT], subjectEnd);
+        // one pass over both aligned sequences
+        int qseq = fieldStart[COL_QSEQ];
+        int qseqLength = fieldEnd[COL_QSEQ] - qseq;
+        int sseq = fieldStart[COL_SSEQ];
+        if (fieldEnd[COL_SSEQ] - sseq != qseqLength)
+            throw new IOException("Aligned sequences differ in length in RPS-BLAST output line '"+
+                                  new String(buf, from, to - from)+"'");
+        int queryResidues = 0;
+        int subjectResidues = 0;
+        int alignedResidues = 0;
+        for (int k = 0; k < qseqLength; k++) {
+            boolean q = buf[qseq + k] != '-';
+            boolean s = buf[sseq + k] != '-';
+            if (q)
+                queryResidues++;
+            if (s) {
+                subjectResidues++;
+                if (q)
+                    alignedResidues++;
+            }
+        }
+        callback.next(parseInt(COL_QUERY, from, to),
+                      subject,
+                      parseInt(COL_QSTART, from, to),
+                      queryResidues,
+                      parseInt(COL_SSTART, from, to),
+                      subjectResidues,
+                      alignedResidues,
+                      parseDouble(COL_EVALUE, from, to),
+                      parseDouble(COL_BITSCORE, from, to));
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buf[i] != ' ' && buf[i] != '\t')
+                return false;
+        return true;
+    }
+
+    private int parseInt(int field, int from, int to) throws IOException {
+        try {
+            return AsciiNumbers.parseInt(buf, fieldStart[field], fieldEnd[field]);
+        }
+        catch (NumberFormatException e) {
+            throw formatError(from, to);
+        }
+    }
+
+    private double parseDouble(int field, int from, int to) throws IOException {
+        try {
+            return AsciiNumbers.parseDouble(buf, fieldStart[field], fieldEnd[field]);
+        }
+        catch (NumberFormatException e) {
+            throw formatError(from, to);
+        }
+    }
+
+    private IOException formatError(int from, int to) {
+        return new IOException("Format error in RPS-BLAST output line '"+new String(buf, from, to - from)+"'");
+    }
+}
@@ -0,0 +1,248 @@
+package us.kbase.kbasegenefamilies.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.common.service.JsonClientException;
+import us.kbase.kbasegenefamilies.FeatureLayout;
+import us.kbase.kbasegenefamilies.GenomeProjection;
+import us.kbase.kbasegenefamilies.ObjectStorage;
+
+/**
+   Reads a genome from the workspace straight into a FeatureLayout,
+   walking the get_object_subset response token by token instead of
+   building Genome or Feature objects.  Protein translations go to
+   the layout's spool as they're read; only the ids and locations
+   of the features stay on the heap, with contig ids shared.
+*/
+public class StreamingGenomeReader {
+    /**
+       Fetches the fields of a genome a search uses, and lays them
+       out, spooling the protein sequences in a directory.  The
+       request is made through the storage, so it shares its
+       connection limit and timeouts.
+    */
+    public static FeatureLayout readLayout(ObjectStorage storage,
+                                           String token,
+                                           final String genomeRef,
+                                           final File spoolDir) throws Exception {
+        return storage.callStreaming(token, new ObjectStorage.StreamingCall<FeatureLayout>() {
+                @Override
+                public FeatureLayout call(HttpURLConnection conn) throws Exception {
+                    return readLayout(conn, genomeRef, spoolDir);
+                }
+            });
+    }
+
+    private static FeatureLayout readLayout(HttpURLConnection conn,
+                                            String genomeRef,
+                                            File spoolDir) throws Exception {
+        ObjectMapper mapper = Utils.getMapper();
+        OutputStream os = conn.getOutputStream();
+        JsonGenerator jgen = mapper.getFactory().createGenerator(os, JsonEncoding.UTF8);
+        try {
+            jgen.writeStartObject();
+            jgen.writeStringField("version", "1.1");
+            jgen.writeStringField("method", "Workspace.get_object_subset");
+            jgen.writeStringField("id", UUID.randomUUID().toString());
+            jgen.writeArrayFieldStart("params");
+            jgen.writeStartArray();
+            jgen.writeStartObject();
+            jgen.writeStringField("ref", genomeRef);
+            jgen.writeArrayFieldStart("included");
+            for (String path : GenomeProjection.INCLUDED_PATHS)
+                jgen.writeString(path);
+            jgen.writeEndArray();
+            jgen.writeEndObject();
+            jgen.writeEndArray();
+            jgen.writeEndArray();
+            jgen.writeEndObject();
+        }
+        finally {
+            jgen.close();
+        }
+
+        int code = conn.getResponseCode();
+        InputStream is = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (is == null)
+            throw new JsonClientException("Workspace get_object_subset failed with HTTP status " + code);
+        try {
+            return readResponse(is, genomeRef, spoolDir);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+       Lays out the genome in a get_object_subset response
+    */
+    public static FeatureLayout readResponse(InputStream is,
+                                             String genomeRef,
+                                             File spoolDir) throws Exception {
+        ObjectMapper mapper = Utils.getMapper();
+        JsonParser jp = mapper.getFactory().createParser(is);
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonClientException("Unexpected workspace response for genome " + genomeRef);
+            FeatureLayout rv = null;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String name = jp.getCurrentName();
+                JsonToken t = jp.nextToken();
+                if (name.equals("error") && t != JsonToken.VALUE_NULL) {
+                    JsonNode error = mapper.readTree(jp);
+                    JsonNode message = error.get("message");
+                    throw new JsonClientException(message == null ? error.toString() : message.asText());
+                }
+                else if (name.equals("result") && t == JsonToken.START_ARRAY) {
+                    rv = readResult(jp, genomeRef, spoolDir);
+                    // the rest of the response isn't needed
+                    break;
+                }
+                else {
+                    jp.skipChildren();
+                }
+            }
+            if (rv == null)
+                throw new JsonClientException("No genome in workspace response for " + genomeRef);
+            return rv;
+        }
+        finally {
+            jp.close();
+        }
+    }
+
+    private static FeatureLayout readResult(JsonParser jp,
+                                            String genomeRef,
+                                            File spoolDir) throws Exception {
+        // result is [[object_data]]
+        if (jp.nextToken() != JsonToken.START_ARRAY ||
+            jp.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonClientException("Unexpected workspace result for genome " + genomeRef);
+        FeatureLayout rv = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String name = jp.getCurrentName();
+            JsonToken t = jp.nextToken();
+            if (name.equals("data") && t == JsonToken.START_OBJECT) {
+                rv = new FeatureLayout(genomeRef, spoolDir);
+                try {
+                    readGenome(jp, rv);
+                }
+                catch (Exception e) {
+                    rv.close();
+                    throw e;
+                }
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+        return rv;
+    }
+
+    private static void readGenome(JsonParser jp,
+                                   FeatureLayout layout) throws Exception {
+        String name = null;
+        List<String> contigIds = null;
+        List<Long> contigLengths = null;
+        Map<String,String> contigs = new HashMap<String,String>();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken t = jp.nextToken();
+            if (t == JsonToken.VALUE_NULL)
+                continue;
+            if (field.equals("scientific_name")) {
+                name = jp.getText();
+            }
+            else if (field.equals("contig_ids") && t == JsonToken.START_ARRAY) {
+                contigIds = new ArrayList<String>();
+                while (jp.nextToken() != JsonToken.END_ARRAY)
+                    contigIds.add(share(contigs, jp.getText()));
+            }
+            else if (field.equals("contig_lengths") && t == JsonToken.START_ARRAY) {
+                contigLengths = new ArrayList<Long>();
+                while (jp.nextToken() != JsonToken.END_ARRAY)
+                    contigLengths.add(jp.getLongValue());
+            }
+            else if (field.equals("features") && t == JsonToken.START_ARRAY) {
+                while (jp.nextToken() == JsonToken.START_OBJECT)
+                    readFeature(jp, layout, contigs);
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+        layout.finish(name, contigIds, contigLengths);
+    }
+
+    /**
+       Reads one feature and adds it to the layout; only the first
+       part of its location is used
+    */
+    private static void readFeature(JsonParser jp,
+                                    FeatureLayout layout,
+                                    Map<String,String> contigs) throws Exception {
+        String id = null;
+        String contig = null;
+        long start = 0;
+        String strand = null;
+        long length = 0;
+        String seq = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken t = jp.nextToken();
+            if (t == JsonToken.VALUE_NULL)
+                continue;
+            if (field.equals("id")) {
+                id = jp.getText();
+            }
+            else if (field.equals("protein_translation")) {
+                seq = jp.getText();
+            }
+            else if (field.equals("location") && t == JsonToken.START_ARRAY) {
+                if (jp.nextToken() == JsonToken.START_ARRAY) {
+                    jp.nextToken();
+                    contig = share(contigs, jp.getText());
+                    jp.nextToken();
+                    start = jp.getLongValue();
+                    jp.nextToken();
+                    strand = jp.getText();
+                    jp.nextToken();
+                    length = jp.getLongValue();
+                    while (jp.nextToken() != JsonToken.END_ARRAY)
+                        jp.skipChildren();
+                    while (jp.nextToken() != JsonToken.END_ARRAY)
+                        jp.skipChildren();
+                }
+            }
+            else {
+                jp.skipChildren();
+            }
+        }
+        layout.addFeature(id, contig, start, strand, length, seq);
+    }
+
+    /**
+       Returns one shared copy of each contig id
+    */
+    private static String share(Map<String,String> contigs,
+                                String contig) {
+        String rv = contigs.get(contig);
+        if (rv == null) {
+            contigs.put(contig, contig);
+            rv = contig;
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,116 @@
+package us.kbase.kbasegenefamilies.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.Tuple11;
+import us.kbase.kbasegenefamilies.ObjectStorage;
+import us.kbase.workspace.ProvenanceAction;
+
+/**
+   Saves one object to the workspace, writing its data into the
+   body of the save_objects request as it is generated, in chunks,
+   instead of serializing the whole object in memory first.  The
+   object's metadata is produced by the same pass that writes the
+   data, and is sent after it.  The request is made through the
+   storage, so it shares its connection limit and timeouts.
+*/
+public class StreamingSaver {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+       Writes the data of an object, returning the metadata to save
+       with it.
+    */
+    public interface DataWriter {
+        public Map<String,String> writeData(JsonGenerator jgen) throws IOException;
+    }
+
+    /**
+       Saves an object, returning its object info.  The id is used
+       as the object id if it's numeric, otherwise as the name.
+    */
+    public static Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>> saveObject(
+            ObjectStorage storage, String token, final String ws, final String id, final String type,
+            final List<ProvenanceAction> provenance, final DataWriter writer) throws Exception {
+        return storage.callStreaming(token, new ObjectStorage.StreamingCall<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>>>() {
+                @Override
+                public Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>> call(HttpURLConnection conn) throws Exception {
+                    return saveObject(conn, ws, id, type, provenance, writer);
+                }
+            });
+    }
+
+    private static Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>> saveObject(
+            HttpURLConnection conn, String ws, String id, String type,
+            List<ProvenanceAction> provenance, DataWriter writer) throws Exception {
+        ObjectMapper mapper = Utils.getMapper();
+        conn.setChunkedStreamingMode(CHUNK_SIZE);
+        OutputStream os = conn.getOutputStream();
+        JsonGenerator jgen = mapper.getFactory().createGenerator(os, JsonEncoding.UTF8);
+        try {
+            jgen.writeStartObject();
+            jgen.writeStringField("version", "1.1");
+            jgen.writeStringField("method", "Workspace.save_objects");
+            jgen.writeStringField("id", UUID.randomUUID().toString());
+            jgen.writeArrayFieldStart("params");
+            jgen.writeStartObject();
+            jgen.writeStringField("workspace", ws);
+            jgen.writeArrayFieldStart("objects");
+            jgen.writeStartObject();
+            jgen.writeStringField("type", type);
+            try {
+                jgen.writeNumberField("objid", Long.parseLong(id));
+            } catch (NumberFormatException ex) {
+                jgen.writeStringField("name", id);
+            }
+            jgen.writeFieldName("provenance");
+            mapper.writeValue(jgen, provenance);
+            jgen.writeFieldName("data");
+            Map<String,String> meta = writer.writeData(jgen);
+            jgen.writeFieldName("meta");
+            mapper.writeValue(jgen, meta);
+            jgen.writeEndObject();
+            jgen.writeEndArray();
+            jgen.writeEndObject();
+            jgen.writeEndArray();
+            jgen.writeEndObject();
+        }
+        finally {
+            jgen.close();
+        }
+
+        int code = conn.getResponseCode();
+        InputStream is = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (is == null)
+            throw new JsonClientException("Workspace save_objects failed with HTTP status " + code);
+        JsonNode response;
+        try {
+            response = mapper.readTree(is);
+        }
+        finally {
+            is.close();
+        }
+        JsonNode error = response.get("error");
+        if (error != null && !error.isNull()) {
+            JsonNode message = error.get("message");
+            throw new JsonClientException(message == null ? error.toString() : message.asText());
+        }
+        List<List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>>>> result =
+            mapper.readValue(mapper.treeAsTokens(response.get("result")),
+                             new TypeReference<List<List<Tuple11<Long, String, String, String, Long, String, Long, String, String, Long, Map<String,String>>>>>() {});
+        return result.get(0).get(0);
+    }
+}
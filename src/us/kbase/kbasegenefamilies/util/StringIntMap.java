@@ -0,0 +1,88 @@
+package us.kbase.kbasegenefamilies.util;
+
+/**
+   Maps Strings to ints in parallel arrays, using open addressing
+   with linear probing, so a large map costs two arrays rather than
+   an entry object and a boxed value per key.  Safe to read from
+   many threads once it's no longer written.
+*/
+public class StringIntMap {
+    private String[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public StringIntMap() {
+        this(16);
+    }
+
+    /**
+       Makes a map sized for an expected number of keys
+    */
+    public StringIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity *= 2;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+       Maps a key to a value, replacing any value it had
+    */
+    public void put(String key, int value) {
+        int slot = find(keys, key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 2 > keys.length)
+            grow();
+    }
+
+    /**
+       Returns the value of a key, or missing if it has none
+    */
+    public int get(String key, int missing) {
+        int slot = find(keys, key);
+        return keys[slot] == null ? missing : values[slot];
+    }
+
+    public boolean containsKey(String key) {
+        return keys[find(keys, key)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+       Slot holding a key, or the empty slot where it would go
+    */
+    private static int find(String[] keys, String key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(String key) {
+        int rv = key.hashCode();
+        return rv ^ (rv >>> 16);
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int slot = find(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}